@@ -0,0 +1,242 @@
+package app.capgo.plugin.photo_library;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Build;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+final class BitmapUtils {
+
+    static final int MIN_BUDGET_QUALITY = 10;
+    static final int MAX_BUDGET_QUALITY = 95;
+
+    private BitmapUtils() {}
+
+    /** Largest power-of-two sample size that still covers the bounds; a bound of {@code 0} is unconstrained. */
+    static int sampleSize(int sourceWidth, int sourceHeight, int maxWidth, int maxHeight) {
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return 1;
+        }
+        float scale = 1f;
+        if (maxWidth > 0) {
+            scale = Math.min(scale, (float) maxWidth / sourceWidth);
+        }
+        if (maxHeight > 0) {
+            scale = Math.min(scale, (float) maxHeight / sourceHeight);
+        }
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    static int readOrientation(InputStream in) {
+        try {
+            return new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException | RuntimeException ex) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    static boolean swapsDimensions(int orientation) {
+        return (
+            orientation == ExifInterface.ORIENTATION_ROTATE_90 ||
+            orientation == ExifInterface.ORIENTATION_ROTATE_270 ||
+            orientation == ExifInterface.ORIENTATION_TRANSPOSE ||
+            orientation == ExifInterface.ORIENTATION_TRANSVERSE
+        );
+    }
+
+    /** Orients and scales to fit the bounds, given in display orientation, in one pass; recycles the input if replaced. */
+    static Bitmap orientAndFit(Bitmap source, int orientation, int maxWidth, int maxHeight) {
+        boolean swap = swapsDimensions(orientation);
+        int displayWidth = swap ? source.getHeight() : source.getWidth();
+        int displayHeight = swap ? source.getWidth() : source.getHeight();
+
+        float scale = 1f;
+        if (maxWidth > 0) {
+            scale = Math.min(scale, (float) maxWidth / displayWidth);
+        }
+        if (maxHeight > 0) {
+            scale = Math.min(scale, (float) maxHeight / displayHeight);
+        }
+
+        Matrix matrix = new Matrix();
+        if (scale < 1f) {
+            matrix.postScale(scale, scale);
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                if (scale >= 1f) {
+                    return source;
+                }
+        }
+
+        Bitmap result = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        if (result != source) {
+            source.recycle();
+        }
+        return result;
+    }
+
+    /** Maps a display-orientation rectangle onto the stored pixels. */
+    static Rect sourceRect(int orientation, int sourceWidth, int sourceHeight, int x, int y, int width, int height) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                return new Rect(sourceWidth - x - width, y, sourceWidth - x, y + height);
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return new Rect(sourceWidth - x - width, sourceHeight - y - height, sourceWidth - x, sourceHeight - y);
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return new Rect(x, sourceHeight - y - height, x + width, sourceHeight - y);
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return new Rect(y, x, y + height, x + width);
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return new Rect(y, sourceHeight - x - width, y + height, sourceHeight - x);
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return new Rect(sourceWidth - y - height, sourceHeight - x - width, sourceWidth - y, sourceHeight - x);
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return new Rect(sourceWidth - y - height, x, sourceWidth - y, x + width);
+            default:
+                return new Rect(x, y, x + width, y + height);
+        }
+    }
+
+    /** 64-bit difference hash: one bit per 9x8 luminance sample brighter than its right-hand neighbour. */
+    static long differenceHash(Bitmap source) {
+        Bitmap small = Bitmap.createScaledBitmap(source, 9, 8, true);
+        int[] pixels = new int[9 * 8];
+        small.getPixels(pixels, 0, 9, 0, 0, 9, 8);
+        if (small != source) {
+            small.recycle();
+        }
+
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash <<= 1;
+                if (luminance(pixels[y * 9 + x]) > luminance(pixels[y * 9 + x + 1])) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static int luminance(int color) {
+        return (((color >> 16) & 0xff) * 299 + ((color >> 8) & 0xff) * 587 + (color & 0xff) * 114) / 1000;
+    }
+
+    /** Average of the fullest bucket of pixels grouped by their top four bits per channel. */
+    static int dominantColor(int[] pixels) {
+        int[] counts = new int[4096];
+        for (int color : pixels) {
+            counts[bucket(color)]++;
+        }
+        int best = 0;
+        for (int i = 1; i < counts.length; i++) {
+            if (counts[i] > counts[best]) {
+                best = i;
+            }
+        }
+
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        int members = 0;
+        for (int color : pixels) {
+            if (bucket(color) == best) {
+                r += (color >> 16) & 0xff;
+                g += (color >> 8) & 0xff;
+                b += color & 0xff;
+                members++;
+            }
+        }
+        if (members == 0) {
+            return 0;
+        }
+        return (int) ((r / members) << 16 | (g / members) << 8 | (b / members));
+    }
+
+    private static int bucket(int color) {
+        return ((color >> 12) & 0xf00) | ((color >> 8) & 0xf0) | ((color >> 4) & 0xf);
+    }
+
+    /** Highest quality that fits {@code maxBytes}, encoded into {@code out}; the minimum quality is kept when nothing fits. */
+    static int compressWithinBudget(Bitmap bitmap, int maxBytes, ByteArrayOutputStream out) {
+        int low = MIN_BUDGET_QUALITY;
+        int high = MAX_BUDGET_QUALITY;
+        int chosen = -1;
+        byte[] fitting = null;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            out.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+            if (out.size() <= maxBytes) {
+                chosen = quality;
+                fitting = out.toByteArray();
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        out.reset();
+        if (fitting == null) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, MIN_BUDGET_QUALITY, out);
+            return MIN_BUDGET_QUALITY;
+        }
+        out.write(fitting, 0, fitting.length);
+        return chosen;
+    }
+
+    static Bitmap.CompressFormat compressFormat(String format) {
+        switch (format) {
+            case "png":
+                return Bitmap.CompressFormat.PNG;
+            case "webp":
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                    return Bitmap.CompressFormat.WEBP_LOSSY;
+                }
+                //noinspection deprecation
+                return Bitmap.CompressFormat.WEBP;
+            default:
+                return Bitmap.CompressFormat.JPEG;
+        }
+    }
+
+    static String mimeType(String format) {
+        return "image/" + format.toLowerCase(Locale.US);
+    }
+
+    static String extension(String format) {
+        return "jpeg".equals(format) ? ".jpg" : "." + format;
+    }
+}
@@ -0,0 +1,85 @@
+package app.capgo.plugin.photo_library;
+
+import android.graphics.BitmapFactory;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/** Finds leftovers of interrupted writes and damaged images in the derived-file caches. */
+final class CacheVerifier {
+
+    interface ImageCheck {
+        boolean isIntact(File file);
+    }
+
+    private CacheVerifier() {}
+
+    /** Files in {@code rawDirectory} are copies of originals, so they are only checked for leftovers. */
+    static JSObject verify(File[] directories, File rawDirectory, ThumbnailStore store, ImageCheck check) {
+        int checked = 0;
+        JSArray partial = new JSArray();
+        JSArray corrupt = new JSArray();
+        for (File directory : directories) {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(".part") || name.endsWith(".tmp")) {
+                    partial.put(file.getAbsolutePath());
+                    continue;
+                }
+                checked++;
+                if (!directory.equals(rawDirectory) && !check.isIntact(file)) {
+                    corrupt.put(file.getAbsolutePath());
+                }
+            }
+        }
+        if (store instanceof ThumbnailPack) {
+            ThumbnailPack pack = (ThumbnailPack) store;
+            checked += pack.size();
+            for (String name : pack.corruptEntries()) {
+                corrupt.put(pack.dataFile().getAbsolutePath() + "#" + name);
+            }
+        }
+        JSObject result = new JSObject();
+        result.put("checkedFiles", checked);
+        result.put("partialFiles", partial);
+        result.put("corruptFiles", corrupt);
+        return result;
+    }
+
+    static boolean isIntactImage(File file) {
+        if (!isComplete(file)) {
+            return false;
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+        return bounds.outWidth > 0 && bounds.outHeight > 0;
+    }
+
+    /** Non-empty and, for JPEGs, ending in the end-of-image marker. */
+    static boolean isComplete(File file) {
+        long length = file.length();
+        if (length == 0) {
+            return false;
+        }
+        String name = file.getName();
+        if (!name.endsWith(".jpg") && !name.endsWith(".jpeg")) {
+            return true;
+        }
+        if (length < 2) {
+            return false;
+        }
+        try (RandomAccessFile jpeg = new RandomAccessFile(file, "r")) {
+            jpeg.seek(length - 2);
+            return jpeg.read() == 0xFF && jpeg.read() == 0xD9;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+}
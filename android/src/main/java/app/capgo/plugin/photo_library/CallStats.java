@@ -0,0 +1,87 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSObject;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Queue-wait and run-time samples per method, kept in a bounded ring buffer. */
+final class CallStats {
+
+    private static final int MAX_SAMPLES = 2048;
+
+    private static final class Samples {
+
+        final long[] waitNanos = new long[MAX_SAMPLES];
+        final long[] runNanos = new long[MAX_SAMPLES];
+        long total;
+
+        synchronized void add(long wait, long run) {
+            int slot = (int) (total % MAX_SAMPLES);
+            waitNanos[slot] = wait;
+            runNanos[slot] = run;
+            total++;
+        }
+
+        synchronized JSObject summary() {
+            int count = (int) Math.min(total, MAX_SAMPLES);
+            long[] waits = Arrays.copyOf(waitNanos, count);
+            long[] runs = Arrays.copyOf(runNanos, count);
+            Arrays.sort(waits);
+            Arrays.sort(runs);
+            JSObject result = new JSObject();
+            result.put("count", total);
+            result.put("queueWaitP50", millis(percentile(waits, 0.50)));
+            result.put("queueWaitP99", millis(percentile(waits, 0.99)));
+            result.put("runP50", millis(percentile(runs, 0.50)));
+            result.put("runP99", millis(percentile(runs, 0.99)));
+            result.put("runMax", millis(count > 0 ? runs[count - 1] : 0));
+            return result;
+        }
+    }
+
+    private final Map<String, Samples> methods = new ConcurrentHashMap<>();
+
+    /** Wraps {@code task} to record its queue wait from now and its run time; {@code after} runs before recording. */
+    Runnable timed(String method, Runnable task, Runnable after) {
+        long queued = System.nanoTime();
+        return () -> {
+            long started = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                after.run();
+                record(method, started - queued, System.nanoTime() - started);
+            }
+        };
+    }
+
+    void record(String method, long waitNanos, long runNanos) {
+        methods.computeIfAbsent(method, (key) -> new Samples()).add(waitNanos, runNanos);
+    }
+
+    /** Returns {@code {method: {count, queueWaitP50, queueWaitP99, runP50, runP99, runMax}}} in milliseconds. */
+    JSObject snapshot() {
+        JSObject result = new JSObject();
+        for (Map.Entry<String, Samples> entry : methods.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().summary());
+        }
+        return result;
+    }
+
+    void reset() {
+        methods.clear();
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
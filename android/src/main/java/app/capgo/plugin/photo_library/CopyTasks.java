@@ -0,0 +1,116 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** File copies tracked by task id, reporting progress and cancellable. */
+final class CopyTasks {
+
+    static final String EVENT_COPY_PROGRESS = "copyProgress";
+    static final String COPY_CANCELLED = "Copy cancelled";
+
+    private static final long PROGRESS_INTERVAL_NANOS = 250_000_000L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    interface Listener {
+        void onEvent(String eventName, JSObject data);
+    }
+
+    static final class CancelledException extends IOException {
+
+        CancelledException() {
+            super(COPY_CANCELLED);
+        }
+    }
+
+    private final Map<String, AtomicBoolean> active = new ConcurrentHashMap<>();
+
+    @Nullable
+    private volatile Listener listener;
+
+    void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    boolean cancel(String taskId) {
+        AtomicBoolean flag = active.get(taskId);
+        if (flag == null) {
+            return false;
+        }
+        flag.set(true);
+        return true;
+    }
+
+    /** {@code totalBytes} may be {@code -1} when the size is unknown. */
+    void copy(InputStream in, File target, String taskId, String assetId, long totalBytes) throws IOException {
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        if (active.putIfAbsent(taskId, cancelled) != null) {
+            throw new IOException("A copy with task id " + taskId + " is already running");
+        }
+
+        File partial = new File(target.getParentFile(), target.getName() + ".part");
+        long started = System.nanoTime();
+        long copied = 0;
+        boolean completed = false;
+        try {
+            emit(taskId, assetId, "running", 0, totalBytes, started);
+            long lastEmit = started;
+            try (FileOutputStream out = new FileOutputStream(partial)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (cancelled.get()) {
+                        throw new CancelledException();
+                    }
+                    out.write(buffer, 0, read);
+                    copied += read;
+                    long now = System.nanoTime();
+                    if (now - lastEmit >= PROGRESS_INTERVAL_NANOS) {
+                        lastEmit = now;
+                        emit(taskId, assetId, "running", copied, totalBytes, started);
+                    }
+                }
+            }
+            if (cancelled.get()) {
+                throw new CancelledException();
+            }
+            if (!partial.renameTo(target)) {
+                throw new IOException("Unable to move copied file into the cache");
+            }
+            completed = true;
+            emit(taskId, assetId, "completed", copied, totalBytes, started);
+        } catch (IOException ex) {
+            emit(taskId, assetId, ex instanceof CancelledException ? "cancelled" : "failed", copied, totalBytes, started);
+            throw ex;
+        } finally {
+            active.remove(taskId);
+            if (!completed) {
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+            }
+        }
+    }
+
+    private void emit(String taskId, String assetId, String state, long copied, long totalBytes, long started) {
+        Listener current = listener;
+        if (current == null) {
+            return;
+        }
+        double elapsedSeconds = (System.nanoTime() - started) / 1_000_000_000.0;
+        JSObject data = new JSObject();
+        data.put("taskId", taskId);
+        data.put("assetId", assetId);
+        data.put("state", state);
+        data.put("bytesCopied", copied);
+        data.put("totalBytes", totalBytes);
+        data.put("bytesPerSecond", elapsedSeconds > 0 ? Math.round(copied / elapsedSeconds) : 0);
+        current.onEvent(EVENT_COPY_PROGRESS, data);
+    }
+}
@@ -0,0 +1,109 @@
+package app.capgo.plugin.photo_library;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import java.io.InterruptedIOException;
+
+/**
+ * Admission control for bitmap decodes. A thread holds at most one reservation at a time, so a
+ * request larger than the whole budget is admitted once nothing else is reserved.
+ */
+final class DecodeBudget {
+
+    private static final long MIN_BUDGET = 16L * 1024 * 1024;
+    // Without a new trim signal for this long, the full budget is restored.
+    private static final long TRIM_RECOVERY_MS = 30_000;
+
+    final class Reservation implements AutoCloseable {
+
+        private final long bytes;
+        private boolean released;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            synchronized (DecodeBudget.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                reserved -= bytes;
+                DecodeBudget.this.notifyAll();
+            }
+        }
+    }
+
+    private final long fullCapacity;
+    private long capacity;
+    private long reserved;
+    private long trimmedAt;
+
+    DecodeBudget(long capacity) {
+        this.fullCapacity = Math.max(MIN_BUDGET, capacity);
+        this.capacity = fullCapacity;
+    }
+
+    static DecodeBudget forContext(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClassMb = activityManager != null ? activityManager.getMemoryClass() : 0;
+        long heap = memoryClassMb > 0 ? memoryClassMb * 1024L * 1024 : Runtime.getRuntime().maxMemory();
+        return new DecodeBudget(heap / 4);
+    }
+
+    /** Bytes of an ARGB_8888 bitmap decoded from {@code width}x{@code height} with {@code sampleSize}. */
+    static long bitmapBytes(int width, int height, int sampleSize) {
+        int sample = Math.max(1, sampleSize);
+        long sampledWidth = (Math.max(0, width) + sample - 1) / sample;
+        long sampledHeight = (Math.max(0, height) + sample - 1) / sample;
+        return sampledWidth * sampledHeight * 4;
+    }
+
+    /** Blocks until {@code bytes} fit in the budget; close the reservation once its bitmaps are recycled. */
+    synchronized Reservation reserve(long bytes) throws InterruptedIOException {
+        long cost = Math.max(0, bytes);
+        while (reserved > 0 && reserved + cost > currentCapacity()) {
+            try {
+                wait(TRIM_RECOVERY_MS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decode memory");
+            }
+        }
+        reserved += cost;
+        return new Reservation(cost);
+    }
+
+    synchronized boolean trim(int level) {
+        long divisor;
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            divisor = 4;
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW || level == ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            divisor = 2;
+        } else {
+            return false;
+        }
+        capacity = Math.min(currentCapacity(), Math.max(MIN_BUDGET, fullCapacity / divisor));
+        trimmedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    synchronized long reserved() {
+        return reserved;
+    }
+
+    synchronized long capacity() {
+        return currentCapacity();
+    }
+
+    private long currentCapacity() {
+        if (capacity < fullCapacity && System.currentTimeMillis() - trimmedAt > TRIM_RECOVERY_MS) {
+            capacity = fullCapacity;
+            notifyAll();
+        }
+        return capacity;
+    }
+}
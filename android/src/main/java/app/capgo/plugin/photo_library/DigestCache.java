@@ -0,0 +1,120 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Persistent SHA-256 digests keyed by asset id, valid while the asset keeps its size and modification time. */
+final class DigestCache {
+
+    private static final int VERSION = 1;
+    private static final int DIGEST_LENGTH = 32;
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+
+    DigestCache(File file) {
+        this.file = file;
+    }
+
+    synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] digest = new byte[DIGEST_LENGTH];
+                in.readFully(digest);
+                entries.put(id, new Entry(size, modified, digest));
+            }
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to read digest cache", ex);
+        }
+    }
+
+    @Nullable
+    byte[] get(String id, long size, long modified) {
+        Entry entry = entries.get(id);
+        if (entry == null || entry.size != size || entry.modified != modified) {
+            return null;
+        }
+        return entry.digest;
+    }
+
+    void put(String id, long size, long modified, byte[] digest) {
+        entries.put(id, new Entry(size, modified, digest));
+        dirty = true;
+    }
+
+    void save() {
+        synchronized (writeLock) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            File partial = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (FileOutputStream stream = new FileOutputStream(partial)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                Map<String, Entry> snapshot = new HashMap<>(entries);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> item : snapshot.entrySet()) {
+                    out.writeUTF(item.getKey());
+                    out.writeLong(item.getValue().size);
+                    out.writeLong(item.getValue().modified);
+                    out.write(item.getValue().digest);
+                }
+                out.flush();
+                stream.getFD().sync();
+            } catch (IOException ex) {
+                Logger.error("PhotoLibrary", "Failed to write digest cache", ex);
+                dirty = true;
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+                return;
+            }
+            if (!partial.renameTo(file)) {
+                dirty = true;
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final long size;
+        final long modified;
+        final byte[] digest;
+
+        Entry(long size, long modified, byte[] digest) {
+            this.size = size;
+            this.modified = modified;
+            this.digest = digest;
+        }
+    }
+}
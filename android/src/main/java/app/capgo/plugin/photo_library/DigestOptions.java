@@ -0,0 +1,31 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.PluginCall;
+import java.util.ArrayList;
+import java.util.List;
+
+final class DigestOptions {
+
+    final List<String> ids;
+
+    private DigestOptions(List<String> ids) {
+        this.ids = ids;
+    }
+
+    static DigestOptions fromCall(PluginCall call) {
+        JSArray array = call.getArray("ids");
+        if (array == null || array.length() == 0) {
+            throw new IllegalArgumentException("Parameter 'ids' must be a non-empty array");
+        }
+        List<String> ids = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            String id = array.optString(i, null);
+            if (id == null || id.isEmpty()) {
+                throw new IllegalArgumentException("Parameter 'ids' must only contain asset ids");
+            }
+            ids.add(id);
+        }
+        return new DigestOptions(ids);
+    }
+}
@@ -0,0 +1,22 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.PluginCall;
+
+final class DuplicateOptions {
+
+    static final int DEFAULT_MAX_DISTANCE = 4;
+
+    final int maxDistance;
+
+    private DuplicateOptions(int maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    static DuplicateOptions fromCall(PluginCall call) {
+        int maxDistance = call.getInt("maxDistance", DEFAULT_MAX_DISTANCE);
+        if (maxDistance < 0 || maxDistance > PerceptualHashIndex.MAX_DISTANCE) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and " + PerceptualHashIndex.MAX_DISTANCE);
+        }
+        return new DuplicateOptions(maxDistance);
+    }
+}
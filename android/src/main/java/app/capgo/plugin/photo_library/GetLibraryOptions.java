@@ -1,9 +1,78 @@
 package app.capgo.plugin.photo_library;
 
+import android.provider.MediaStore;
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.PluginCall;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 final class GetLibraryOptions {
 
+    enum SortKey {
+        DATE_ADDED("dateAdded", MediaStore.MediaColumns.DATE_ADDED, null),
+        // Like the reported creationDate: DATE_TAKEN (ms) when set, DATE_ADDED (s) otherwise.
+        CREATION_DATE("creationDate", MediaStore.Images.Media.DATE_TAKEN, MediaStore.MediaColumns.DATE_ADDED),
+        MODIFICATION_DATE("modificationDate", MediaStore.MediaColumns.DATE_MODIFIED, null),
+        SIZE("size", MediaStore.MediaColumns.SIZE, null),
+        FILE_NAME("fileName", MediaStore.MediaColumns.DISPLAY_NAME, null);
+
+        final String value;
+        final String column;
+
+        /** Seconds column used, in milliseconds, where {@link #column} is null or not positive. */
+        @Nullable
+        final String fallbackColumn;
+
+        SortKey(String value, String column, @Nullable String fallbackColumn) {
+            this.value = value;
+            this.column = column;
+            this.fallbackColumn = fallbackColumn;
+        }
+
+        String orderBy() {
+            if (fallbackColumn == null) {
+                return column;
+            }
+            return "CASE WHEN " + column + ">0 THEN " + column + " ELSE " + fallbackColumn + "*1000 END";
+        }
+
+        static SortKey fromValue(String value) {
+            for (SortKey key : values()) {
+                if (key.value.equals(value)) {
+                    return key;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported sortBy value: " + value);
+        }
+    }
+
+    static final List<String> ASSET_FIELDS = Arrays.asList(
+        "fileName",
+        "type",
+        "width",
+        "height",
+        "duration",
+        "creationDate",
+        "modificationDate",
+        "latitude",
+        "longitude",
+        "mimeType",
+        "size",
+        "albumIds",
+        "blurHash",
+        "dominantColor",
+        "thumbnail",
+        "file"
+    );
+
     final int offset;
     final Integer limit;
     final boolean includeImages;
@@ -14,7 +83,28 @@ final class GetLibraryOptions {
     final int thumbnailWidth;
     final int thumbnailHeight;
     final double thumbnailQuality;
+    // Byte budget for thumbnails, 0 to encode at thumbnailQuality.
+    final int thumbnailMaxBytes;
     final boolean includeFullResolutionData;
+    final boolean includePlaceholder;
+    final boolean useSnapshot;
+
+    // Asset keys to emit besides "id"; null emits every field.
+    @Nullable
+    final Set<String> fields;
+
+    final List<String> albumIds;
+    final Long fromDate;
+    final Long toDate;
+    final List<String> mimeTypes;
+    final Long minSize;
+    final Long maxSize;
+    final Integer minWidth;
+    final Integer maxWidth;
+    final Integer minHeight;
+    final Integer maxHeight;
+    final SortKey sortBy;
+    final boolean sortAscending;
 
     private GetLibraryOptions(
         int offset,
@@ -27,7 +117,23 @@ final class GetLibraryOptions {
         int thumbnailWidth,
         int thumbnailHeight,
         double thumbnailQuality,
-        boolean includeFullResolutionData
+        int thumbnailMaxBytes,
+        boolean includeFullResolutionData,
+        boolean includePlaceholder,
+        boolean useSnapshot,
+        @Nullable Set<String> fields,
+        List<String> albumIds,
+        Long fromDate,
+        Long toDate,
+        List<String> mimeTypes,
+        Long minSize,
+        Long maxSize,
+        Integer minWidth,
+        Integer maxWidth,
+        Integer minHeight,
+        Integer maxHeight,
+        SortKey sortBy,
+        boolean sortAscending
     ) {
         this.offset = offset;
         this.limit = limit;
@@ -39,7 +145,23 @@ final class GetLibraryOptions {
         this.thumbnailWidth = thumbnailWidth;
         this.thumbnailHeight = thumbnailHeight;
         this.thumbnailQuality = thumbnailQuality;
+        this.thumbnailMaxBytes = thumbnailMaxBytes;
         this.includeFullResolutionData = includeFullResolutionData;
+        this.includePlaceholder = includePlaceholder;
+        this.useSnapshot = useSnapshot;
+        this.fields = fields;
+        this.albumIds = albumIds;
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+        this.mimeTypes = mimeTypes;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.minWidth = minWidth;
+        this.maxWidth = maxWidth;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        this.sortBy = sortBy;
+        this.sortAscending = sortAscending;
     }
 
     static GetLibraryOptions fromCall(PluginCall call) {
@@ -75,8 +197,32 @@ final class GetLibraryOptions {
         Double qualityOption = call.getDouble("thumbnailQuality");
         double thumbnailQuality = qualityOption != null ? qualityOption : PhotoLibraryDefaults.THUMBNAIL_QUALITY;
         thumbnailQuality = Math.max(0.0, Math.min(1.0, thumbnailQuality));
+        int thumbnailMaxBytes = maxBytesOption(call, "thumbnailMaxBytes");
 
         boolean includeFullResolutionData = call.getBoolean("includeFullResolutionData", false);
+        boolean includePlaceholder = call.getBoolean("includePlaceholder", false);
+        boolean useSnapshot = call.getBoolean("useSnapshot", false);
+        Set<String> fields = fieldMask(call);
+
+        List<String> albumIds = stringList(call, "albumIds");
+        List<String> mimeTypes = stringList(call, "mimeTypes");
+
+        Long fromDate = dateOption(call, "fromDate");
+        Long toDate = dateOption(call, "toDate");
+        if (fromDate != null && toDate != null && fromDate > toDate) {
+            throw new IllegalArgumentException("fromDate must be before toDate");
+        }
+
+        Long minSize = nonNegativeLong(call, "minSize");
+        Long maxSize = nonNegativeLong(call, "maxSize");
+        Integer minWidth = nonNegativeInt(call, "minWidth");
+        Integer maxWidth = nonNegativeInt(call, "maxWidth");
+        Integer minHeight = nonNegativeInt(call, "minHeight");
+        Integer maxHeight = nonNegativeInt(call, "maxHeight");
+
+        String sortValue = call.getString("sortBy");
+        SortKey sortBy = sortValue == null || sortValue.isEmpty() ? SortKey.DATE_ADDED : SortKey.fromValue(sortValue);
+        boolean sortAscending = call.getBoolean("sortAscending", false);
 
         return new GetLibraryOptions(
             offset,
@@ -89,7 +235,101 @@ final class GetLibraryOptions {
             thumbnailWidth,
             thumbnailHeight,
             thumbnailQuality,
-            includeFullResolutionData
+            thumbnailMaxBytes,
+            includeFullResolutionData,
+            includePlaceholder,
+            useSnapshot,
+            fields,
+            albumIds,
+            fromDate,
+            toDate,
+            mimeTypes,
+            minSize,
+            maxSize,
+            minWidth,
+            maxWidth,
+            minHeight,
+            maxHeight,
+            sortBy,
+            sortAscending
         );
     }
+
+    boolean wants(String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    @Nullable
+    private static Set<String> fieldMask(PluginCall call) {
+        JSArray array = call.getArray("fields");
+        if (array == null) {
+            return null;
+        }
+        Set<String> fields = new HashSet<>();
+        for (int i = 0; i < array.length(); i++) {
+            String field = array.optString(i, null);
+            if (field == null || !ASSET_FIELDS.contains(field)) {
+                throw new IllegalArgumentException("Unsupported field: " + field);
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    private static List<String> stringList(PluginCall call, String key) {
+        JSArray array = call.getArray(key);
+        if (array == null || array.length() == 0) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            String value = array.optString(i, null);
+            if (value != null && !value.isEmpty()) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private static Long dateOption(PluginCall call, String key) {
+        String value = call.getString(key);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {}
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException(key + " must be an ISO-8601 date");
+        }
+    }
+
+    private static Long nonNegativeLong(PluginCall call, String key) {
+        Long value = call.getLong(key);
+        if (value != null && value < 0) {
+            throw new IllegalArgumentException(key + " must be greater than or equal to 0");
+        }
+        return value;
+    }
+
+    static int maxBytesOption(PluginCall call, String key) {
+        Integer value = call.getInt(key);
+        if (value == null) {
+            return 0;
+        }
+        if (value <= 0) {
+            throw new IllegalArgumentException(key + " must be greater than 0");
+        }
+        return value;
+    }
+
+    private static Integer nonNegativeInt(PluginCall call, String key) {
+        Integer value = call.getInt(key);
+        if (value != null && value < 0) {
+            throw new IllegalArgumentException(key + " must be greater than or equal to 0");
+        }
+        return value;
+    }
 }
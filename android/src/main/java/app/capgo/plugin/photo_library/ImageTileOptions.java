@@ -0,0 +1,62 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.PluginCall;
+
+final class ImageTileOptions {
+
+    static final int MAX_LEVEL = 8;
+
+    final String id;
+    final int x;
+    final int y;
+    final int width;
+    final int height;
+    final int level;
+    final String format;
+    final double quality;
+
+    private ImageTileOptions(String id, int x, int y, int width, int height, int level, String format, double quality) {
+        this.id = id;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.level = level;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    static ImageTileOptions fromCall(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'id' is required");
+        }
+
+        Integer x = call.getInt("x");
+        Integer y = call.getInt("y");
+        Integer width = call.getInt("width");
+        Integer height = call.getInt("height");
+        if (x == null || y == null || width == null || height == null) {
+            throw new IllegalArgumentException("Parameters 'x', 'y', 'width' and 'height' are required");
+        }
+        if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("The tile rectangle must lie inside the image");
+        }
+
+        int level = call.getInt("level", 0);
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be between 0 and " + MAX_LEVEL);
+        }
+
+        String format = call.getString("format", "jpeg");
+        if (!"jpeg".equals(format) && !"webp".equals(format) && !"png".equals(format)) {
+            throw new IllegalArgumentException("format must be one of 'jpeg', 'webp' or 'png'");
+        }
+
+        Double qualityOption = call.getDouble("quality");
+        double quality = qualityOption != null ? qualityOption : PhotoLibraryDefaults.RENDITION_QUALITY;
+        quality = Math.max(0.0, Math.min(1.0, quality));
+
+        return new ImageTileOptions(id, x, y, width, height, level, format, quality);
+    }
+}
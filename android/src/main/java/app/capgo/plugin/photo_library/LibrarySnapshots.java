@@ -0,0 +1,141 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persisted getLibrary pages, memory-mapped on load. File layout: int version, UTF key, UTF
+ * generation, int payload length, UTF-8 JSON payload.
+ */
+final class LibrarySnapshots {
+
+    private static final int VERSION = 1;
+    private static final int MAX_SNAPSHOTS = 4;
+    private static final String EXTENSION = ".snap";
+
+    static final class Snapshot {
+
+        final String generation;
+        final String payload;
+
+        Snapshot(String generation, String payload) {
+            this.generation = generation;
+            this.payload = payload;
+        }
+    }
+
+    private final File directory;
+    private final Map<String, ByteBuffer> mapped = new ConcurrentHashMap<>();
+
+    LibrarySnapshots(File directory) {
+        this.directory = directory;
+    }
+
+    void load() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(EXTENSION)) {
+                continue;
+            }
+            try (FileInputStream in = new FileInputStream(file)) {
+                FileChannel channel = in.getChannel();
+                String key = name.substring(0, name.length() - EXTENSION.length());
+                // The mapping stays valid after the channel is closed.
+                mapped.put(key, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException ex) {
+                Logger.debug("PhotoLibrary", "Unable to map snapshot: " + ex.getMessage());
+            }
+        }
+    }
+
+    @Nullable
+    Snapshot read(String key) {
+        ByteBuffer buffer = mapped.get(key);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            ByteBuffer view = buffer.duplicate();
+            if (view.getInt() != VERSION || !key.equals(readUtf(view))) {
+                return null;
+            }
+            String generation = readUtf(view);
+            byte[] payload = new byte[view.getInt()];
+            view.get(payload);
+            return new Snapshot(generation, new String(payload, StandardCharsets.UTF_8));
+        } catch (RuntimeException ex) {
+            Logger.debug("PhotoLibrary", "Discarding unreadable snapshot: " + ex.getMessage());
+            mapped.remove(key);
+            return null;
+        }
+    }
+
+    void write(String key, String generation, String payload) {
+        File target = new File(directory, key + EXTENSION);
+        File partial = new File(directory, key + EXTENSION + ".part");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            byte[] encoded = payload.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeUTF(generation);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+            out.flush();
+            byte[] contents = bytes.toByteArray();
+            try (FileOutputStream stream = new FileOutputStream(partial)) {
+                stream.write(contents);
+                stream.getFD().sync();
+            }
+            if (!partial.renameTo(target)) {
+                throw new IOException("Unable to move snapshot into place");
+            }
+            mapped.put(key, ByteBuffer.wrap(contents));
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to write library snapshot", ex);
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            return;
+        }
+        trim();
+    }
+
+    private void trim() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null || files.length <= MAX_SNAPSHOTS) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_SNAPSHOTS; i < files.length; i++) {
+            String name = files[i].getName();
+            mapped.remove(name.substring(0, name.length() - EXTENSION.length()));
+            //noinspection ResultOfMethodCallIgnored
+            files[i].delete();
+        }
+    }
+
+    /** Reads {@link DataOutputStream#writeUTF} output; snapshot strings are plain ASCII. */
+    private static String readUtf(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
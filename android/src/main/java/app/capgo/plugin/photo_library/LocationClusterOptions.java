@@ -0,0 +1,45 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.PluginCall;
+
+final class LocationClusterOptions {
+
+    static final int MAX_ZOOM = 22;
+
+    final double north;
+    final double south;
+    final double east;
+    final double west;
+    final int zoom;
+
+    private LocationClusterOptions(double north, double south, double east, double west, int zoom) {
+        this.north = north;
+        this.south = south;
+        this.east = east;
+        this.west = west;
+        this.zoom = zoom;
+    }
+
+    static LocationClusterOptions fromCall(PluginCall call) {
+        Double north = call.getDouble("north");
+        Double south = call.getDouble("south");
+        Double east = call.getDouble("east");
+        Double west = call.getDouble("west");
+        if (north == null || south == null || east == null || west == null) {
+            throw new IllegalArgumentException("Parameters 'north', 'south', 'east' and 'west' are required");
+        }
+        if (south > north || south < -90 || north > 90) {
+            throw new IllegalArgumentException("Latitudes must satisfy -90 <= south <= north <= 90");
+        }
+        if (west < -180 || west > 180 || east < -180 || east > 180) {
+            throw new IllegalArgumentException("Longitudes must be between -180 and 180");
+        }
+
+        int zoom = call.getInt("zoom", 0);
+        if (zoom < 0 || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("zoom must be between 0 and " + MAX_ZOOM);
+        }
+
+        return new LocationClusterOptions(north, south, east, west, zoom);
+    }
+}
@@ -0,0 +1,272 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Persistent coordinates keyed by MediaStore id and DATE_MODIFIED, sorted by id, with a lon/lat grid for box queries. */
+final class LocationIndex {
+
+    private static final int VERSION = 1;
+    private static final int GRID_SIZE = 256;
+    private static final double MAX_MERCATOR_LATITUDE = 85.05112878;
+
+    private final File file;
+
+    private long[] ids = new long[0];
+    private long[] modified = new long[0];
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+    private boolean loaded;
+
+    // Grid: point indices grouped by cell, cellStart[c]..cellStart[c + 1] delimits cell c.
+    @Nullable
+    private int[] cellStart;
+
+    @Nullable
+    private int[] cellPoints;
+
+    LocationIndex(File file) {
+        this.file = file;
+    }
+
+    synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            long[] newIds = new long[count];
+            long[] newModified = new long[count];
+            double[] newLatitudes = new double[count];
+            double[] newLongitudes = new double[count];
+            for (int i = 0; i < count; i++) {
+                newIds[i] = in.readLong();
+                newModified[i] = in.readLong();
+                newLatitudes[i] = in.readDouble();
+                newLongitudes[i] = in.readDouble();
+            }
+            replace(newIds, newModified, newLatitudes, newLongitudes);
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to read location index", ex);
+        }
+    }
+
+    synchronized void save() {
+        File partial = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(partial)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeLong(ids[i]);
+                out.writeLong(modified[i]);
+                out.writeDouble(latitudes[i]);
+                out.writeDouble(longitudes[i]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to write location index", ex);
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            return;
+        }
+        if (!partial.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+        }
+    }
+
+    synchronized boolean isCurrent(long id, long dateModified) {
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 && modified[index] == dateModified;
+    }
+
+    @Nullable
+    synchronized double[] lookup(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0 || Double.isNaN(latitudes[index])) {
+            return null;
+        }
+        return new double[] { latitudes[index], longitudes[index] };
+    }
+
+    /** {@code ids} must be sorted ascending. */
+    synchronized void update(long[] snapshotIds, long[] snapshotModified, Map<Long, double[]> extracted) {
+        int count = snapshotIds.length;
+        double[] newLatitudes = new double[count];
+        double[] newLongitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            double[] coordinates = extracted.get(snapshotIds[i]);
+            if (coordinates == null) {
+                int previous = Arrays.binarySearch(ids, snapshotIds[i]);
+                coordinates = previous >= 0 ? new double[] { latitudes[previous], longitudes[previous] } : null;
+            }
+            newLatitudes[i] = coordinates != null ? coordinates[0] : Double.NaN;
+            newLongitudes[i] = coordinates != null ? coordinates[1] : Double.NaN;
+        }
+        replace(snapshotIds.clone(), snapshotModified.clone(), newLatitudes, newLongitudes);
+    }
+
+    synchronized int countWithLocation() {
+        int count = 0;
+        for (double latitude : latitudes) {
+            if (!Double.isNaN(latitude)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Counts per Web Mercator tile at {@code zoom}; a box with west greater than east crosses the antimeridian. */
+    synchronized JSArray clusters(double north, double south, double east, double west, int zoom) {
+        ensureGrid();
+        Map<Long, double[]> tiles = new HashMap<>();
+        int southCell = latitudeCell(south);
+        int northCell = latitudeCell(north);
+        int westCell = longitudeCell(west);
+        int eastCell = longitudeCell(east);
+        boolean wraps = west > east;
+
+        for (int cy = southCell; cy <= northCell; cy++) {
+            if (wraps) {
+                collect(tiles, cy, westCell, GRID_SIZE - 1, north, south, east, west, zoom);
+                collect(tiles, cy, 0, eastCell, north, south, east, west, zoom);
+            } else {
+                collect(tiles, cy, westCell, eastCell, north, south, east, west, zoom);
+            }
+        }
+
+        JSArray result = new JSArray();
+        for (Map.Entry<Long, double[]> entry : tiles.entrySet()) {
+            double[] cluster = entry.getValue();
+            JSObject item = new JSObject();
+            item.put("x", (int) (entry.getKey() >>> 32));
+            item.put("y", (int) (entry.getKey() & 0xffffffffL));
+            item.put("zoom", zoom);
+            item.put("count", (int) cluster[0]);
+            item.put("latitude", cluster[1] / cluster[0]);
+            item.put("longitude", cluster[2] / cluster[0]);
+            result.put(item);
+        }
+        return result;
+    }
+
+    private void collect(
+        Map<Long, double[]> tiles,
+        int cy,
+        int fromCx,
+        int toCx,
+        double north,
+        double south,
+        double east,
+        double west,
+        int zoom
+    ) {
+        boolean wraps = west > east;
+        for (int cx = fromCx; cx <= toCx; cx++) {
+            int cell = cy * GRID_SIZE + cx;
+            for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+                int index = cellPoints[p];
+                double latitude = latitudes[index];
+                double longitude = longitudes[index];
+                if (latitude < south || latitude > north) {
+                    continue;
+                }
+                boolean insideLongitude = wraps ? (longitude >= west || longitude <= east) : (longitude >= west && longitude <= east);
+                if (!insideLongitude) {
+                    continue;
+                }
+                long key = tileKey(latitude, longitude, zoom);
+                double[] cluster = tiles.get(key);
+                if (cluster == null) {
+                    cluster = new double[3];
+                    tiles.put(key, cluster);
+                }
+                cluster[0] += 1;
+                cluster[1] += latitude;
+                cluster[2] += longitude;
+            }
+        }
+    }
+
+    private void replace(long[] newIds, long[] newModified, double[] newLatitudes, double[] newLongitudes) {
+        ids = newIds;
+        modified = newModified;
+        latitudes = newLatitudes;
+        longitudes = newLongitudes;
+        cellStart = null;
+        cellPoints = null;
+    }
+
+    private void ensureGrid() {
+        if (cellStart != null) {
+            return;
+        }
+        int cells = GRID_SIZE * GRID_SIZE;
+        int[] start = new int[cells + 1];
+        int[] pointCell = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            if (Double.isNaN(latitudes[i])) {
+                pointCell[i] = -1;
+                continue;
+            }
+            int cell = latitudeCell(latitudes[i]) * GRID_SIZE + longitudeCell(longitudes[i]);
+            pointCell[i] = cell;
+            start[cell + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] points = new int[start[cells]];
+        int[] cursor = Arrays.copyOf(start, cells);
+        for (int i = 0; i < ids.length; i++) {
+            if (pointCell[i] >= 0) {
+                points[cursor[pointCell[i]]++] = i;
+            }
+        }
+        cellStart = start;
+        cellPoints = points;
+    }
+
+    private static int latitudeCell(double latitude) {
+        int cell = (int) ((latitude + 90.0) / 180.0 * GRID_SIZE);
+        return Math.max(0, Math.min(GRID_SIZE - 1, cell));
+    }
+
+    private static int longitudeCell(double longitude) {
+        int cell = (int) ((longitude + 180.0) / 360.0 * GRID_SIZE);
+        return Math.max(0, Math.min(GRID_SIZE - 1, cell));
+    }
+
+    private static long tileKey(double latitude, double longitude, int zoom) {
+        int n = 1 << zoom;
+        double clamped = Math.max(-MAX_MERCATOR_LATITUDE, Math.min(MAX_MERCATOR_LATITUDE, latitude));
+        double radians = Math.toRadians(clamped);
+        int x = (int) Math.floor((longitude + 180.0) / 360.0 * n);
+        int y = (int) Math.floor((1.0 - Math.log(Math.tan(radians) + 1.0 / Math.cos(radians)) / Math.PI) / 2.0 * n);
+        x = Math.max(0, Math.min(n - 1, x));
+        y = Math.max(0, Math.min(n - 1, y));
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+}
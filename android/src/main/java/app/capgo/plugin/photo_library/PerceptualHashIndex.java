@@ -0,0 +1,301 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Persistent 64-bit difference hashes keyed by MediaStore id and DATE_MODIFIED, sorted by id. */
+final class PerceptualHashIndex {
+
+    // flipMasks enumerates at most two flipped bits per chunk, so MAX_DISTANCE / TABLES must stay below 3.
+    static final int MAX_DISTANCE = 8;
+
+    private static final int TABLES = 4;
+    private static final int CHUNK_BITS = 16;
+
+    private static final int VERSION = 1;
+    // Hashes recorded while paging are written once this many are buffered or after this long.
+    private static final int SAVE_THRESHOLD = 256;
+    private static final long SAVE_INTERVAL_MS = 60_000;
+
+    private final File file;
+    private final Map<Long, long[]> pending = new ConcurrentHashMap<>();
+    private volatile long lastSaved = System.currentTimeMillis();
+
+    private long[] ids = new long[0];
+    private long[] modified = new long[0];
+    private long[] hashes = new long[0];
+    // Entries whose thumbnail could not be decoded; kept so unchanged files are not retried.
+    private boolean[] missing = new boolean[0];
+    private boolean loaded;
+
+    PerceptualHashIndex(File file) {
+        this.file = file;
+    }
+
+    synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            long[] newIds = new long[count];
+            long[] newModified = new long[count];
+            long[] newHashes = new long[count];
+            boolean[] newMissing = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                newIds[i] = in.readLong();
+                newModified[i] = in.readLong();
+                newHashes[i] = in.readLong();
+                newMissing[i] = in.readBoolean();
+            }
+            ids = newIds;
+            modified = newModified;
+            hashes = newHashes;
+            missing = newMissing;
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to read perceptual hash index", ex);
+        }
+    }
+
+    void record(long id, long dateModified, long hash) {
+        pending.put(id, new long[] { dateModified, hash });
+    }
+
+    boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    void saveIfDue() {
+        int count = pending.size();
+        if (count >= SAVE_THRESHOLD || (count > 0 && System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MS)) {
+            save();
+        }
+    }
+
+    synchronized void save() {
+        load();
+        mergePending();
+        lastSaved = System.currentTimeMillis();
+        File partial = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(partial)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeLong(ids[i]);
+                out.writeLong(modified[i]);
+                out.writeLong(hashes[i]);
+                out.writeBoolean(missing[i]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to write perceptual hash index", ex);
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            return;
+        }
+        if (!partial.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+        }
+    }
+
+    synchronized boolean isCurrent(long id, long dateModified) {
+        long[] buffered = pending.get(id);
+        if (buffered != null && buffered[0] == dateModified) {
+            return true;
+        }
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 && modified[index] == dateModified;
+    }
+
+    /** {@code snapshotIds} must be sorted ascending; entries absent from {@code computed} are kept only while current. */
+    synchronized void update(long[] snapshotIds, long[] snapshotModified, Map<Long, Long> computed) {
+        mergePending();
+        int count = snapshotIds.length;
+        long[] newHashes = new long[count];
+        boolean[] newMissing = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            Long hash = computed.get(snapshotIds[i]);
+            if (hash != null) {
+                newHashes[i] = hash;
+                continue;
+            }
+            int previous = Arrays.binarySearch(ids, snapshotIds[i]);
+            if (previous >= 0 && modified[previous] == snapshotModified[i]) {
+                newHashes[i] = hashes[previous];
+                newMissing[i] = missing[previous];
+            } else {
+                newMissing[i] = true;
+            }
+        }
+        ids = snapshotIds.clone();
+        modified = snapshotModified.clone();
+        hashes = newHashes;
+        missing = newMissing;
+    }
+
+    /**
+     * Groups ids within {@code maxDistance} bits of the group's first id, so members never chain apart.
+     * Hashes within the distance differ by at most {@code maxDistance / 4} bits in one of their four
+     * 16-bit chunks, so only entries at that chunk distance are compared.
+     */
+    synchronized List<long[]> groups(int maxDistance) {
+        int count = ids.length;
+        int buckets = 1 << CHUNK_BITS;
+        int[][] starts = new int[TABLES][];
+        int[][] members = new int[TABLES][];
+        for (int table = 0; table < TABLES; table++) {
+            // Entries grouped by chunk value: start[v]..start[v + 1] delimits value v.
+            int[] start = new int[buckets + 1];
+            for (int i = 0; i < count; i++) {
+                if (!missing[i]) {
+                    start[chunk(hashes[i], table) + 1]++;
+                }
+            }
+            for (int value = 0; value < buckets; value++) {
+                start[value + 1] += start[value];
+            }
+            int[] next = Arrays.copyOf(start, buckets);
+            int[] member = new int[start[buckets]];
+            for (int i = 0; i < count; i++) {
+                if (!missing[i]) {
+                    member[next[chunk(hashes[i], table)]++] = i;
+                }
+            }
+            starts[table] = start;
+            members[table] = member;
+        }
+
+        int[] flips = flipMasks(maxDistance / TABLES);
+        boolean[] grouped = new boolean[count];
+        int[] group = new int[count];
+        List<long[]> result = new ArrayList<>();
+        for (int anchor = 0; anchor < count; anchor++) {
+            if (missing[anchor] || grouped[anchor]) {
+                continue;
+            }
+            int size = 0;
+            for (int table = 0; table < TABLES; table++) {
+                int value = chunk(hashes[anchor], table);
+                for (int flip : flips) {
+                    int bucket = value ^ flip;
+                    for (int k = starts[table][bucket]; k < starts[table][bucket + 1]; k++) {
+                        int candidate = members[table][k];
+                        if (
+                            candidate != anchor &&
+                            !grouped[candidate] &&
+                            Long.bitCount(hashes[anchor] ^ hashes[candidate]) <= maxDistance
+                        ) {
+                            grouped[candidate] = true;
+                            group[size++] = candidate;
+                        }
+                    }
+                }
+            }
+            if (size == 0) {
+                continue;
+            }
+            grouped[anchor] = true;
+            Arrays.sort(group, 0, size);
+            long[] groupIds = new long[size + 1];
+            groupIds[0] = ids[anchor];
+            for (int g = 0; g < size; g++) {
+                groupIds[g + 1] = ids[group[g]];
+            }
+            result.add(groupIds);
+        }
+        return result;
+    }
+
+    private void mergePending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<Long, long[]> batch = new HashMap<>(pending);
+        pending.keySet().removeAll(batch.keySet());
+
+        List<Long> added = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : batch.entrySet()) {
+            int index = Arrays.binarySearch(ids, entry.getKey());
+            if (index >= 0) {
+                modified[index] = entry.getValue()[0];
+                hashes[index] = entry.getValue()[1];
+                missing[index] = false;
+            } else {
+                added.add(entry.getKey());
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+
+        int count = ids.length + added.size();
+        long[] newIds = Arrays.copyOf(ids, count);
+        for (int i = 0; i < added.size(); i++) {
+            newIds[ids.length + i] = added.get(i);
+        }
+        Arrays.sort(newIds);
+        long[] newModified = new long[count];
+        long[] newHashes = new long[count];
+        boolean[] newMissing = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int previous = Arrays.binarySearch(ids, newIds[i]);
+            if (previous >= 0) {
+                newModified[i] = modified[previous];
+                newHashes[i] = hashes[previous];
+                newMissing[i] = missing[previous];
+            } else {
+                long[] entry = batch.get(newIds[i]);
+                newModified[i] = entry[0];
+                newHashes[i] = entry[1];
+            }
+        }
+        ids = newIds;
+        modified = newModified;
+        hashes = newHashes;
+        missing = newMissing;
+    }
+
+    private static int chunk(long hash, int table) {
+        return (int) (hash >>> (table * CHUNK_BITS)) & ((1 << CHUNK_BITS) - 1);
+    }
+
+    /** Every {@link #CHUNK_BITS}-bit mask with at most {@code radius} bits set. */
+    private static int[] flipMasks(int radius) {
+        List<Integer> masks = new ArrayList<>();
+        masks.add(0);
+        for (int first = 0; first < CHUNK_BITS && radius >= 1; first++) {
+            masks.add(1 << first);
+            for (int second = first + 1; second < CHUNK_BITS && radius >= 2; second++) {
+                masks.add((1 << first) | (1 << second));
+            }
+        }
+        int[] result = new int[masks.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = masks.get(i);
+        }
+        return result;
+    }
+}
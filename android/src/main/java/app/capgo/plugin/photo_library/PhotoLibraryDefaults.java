@@ -5,6 +5,10 @@ final class PhotoLibraryDefaults {
     static final int THUMBNAIL_WIDTH = 512;
     static final int THUMBNAIL_HEIGHT = 384;
     static final double THUMBNAIL_QUALITY = 0.5;
+    static final double RENDITION_QUALITY = 0.85;
+    static final long PICKED_ITEM_TTL_MS = 30L * 24 * 60 * 60 * 1000;
+    static final int UPLOAD_CONCURRENCY = 2;
+    static final int MAX_UPLOAD_CONCURRENCY = 8;
 
     private PhotoLibraryDefaults() {}
 }
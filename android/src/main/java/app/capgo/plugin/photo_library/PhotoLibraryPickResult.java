@@ -0,0 +1,14 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSArray;
+
+final class PhotoLibraryPickResult {
+
+    final JSArray assets;
+    final JSArray errors;
+
+    PhotoLibraryPickResult(JSArray assets, JSArray errors) {
+        this.assets = assets;
+        this.errors = errors;
+    }
+}
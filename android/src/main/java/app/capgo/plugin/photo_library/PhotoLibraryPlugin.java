@@ -13,6 +13,7 @@ import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
 import com.getcapacitor.PermissionState;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -21,11 +22,8 @@ import com.getcapacitor.annotation.ActivityCallback;
 import com.getcapacitor.annotation.CapacitorPlugin;
 import com.getcapacitor.annotation.Permission;
 import com.getcapacitor.annotation.PermissionCallback;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 @CapacitorPlugin(
     name = "PhotoLibrary",
@@ -35,7 +33,8 @@ import java.util.concurrent.Executors;
             alias = PhotoLibraryPlugin.PERMISSION_MEDIA
         ),
         @Permission(strings = { Manifest.permission.READ_MEDIA_VISUAL_USER_SELECTED }, alias = PhotoLibraryPlugin.PERMISSION_MEDIA_PARTIAL),
-        @Permission(strings = { Manifest.permission.READ_EXTERNAL_STORAGE }, alias = PhotoLibraryPlugin.PERMISSION_MEDIA_LEGACY)
+        @Permission(strings = { Manifest.permission.READ_EXTERNAL_STORAGE }, alias = PhotoLibraryPlugin.PERMISSION_MEDIA_LEGACY),
+        @Permission(strings = { Manifest.permission.ACCESS_MEDIA_LOCATION }, alias = PhotoLibraryPlugin.PERMISSION_MEDIA_LOCATION)
     }
 )
 public class PhotoLibraryPlugin extends Plugin {
@@ -45,12 +44,14 @@ public class PhotoLibraryPlugin extends Plugin {
     static final String PERMISSION_MEDIA = "media";
     static final String PERMISSION_MEDIA_PARTIAL = "media_partial";
     static final String PERMISSION_MEDIA_LEGACY = "media_legacy";
+    static final String PERMISSION_MEDIA_LOCATION = "media_location";
+    static final String EVENT_LIBRARY_SNAPSHOT_CHANGED = "librarySnapshotChanged";
 
     private static final String STATE_AUTHORIZED = "authorized";
     private static final String STATE_LIMITED = "limited";
     private static final String STATE_DENIED = "denied";
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final CopyTasks.Listener eventListener = this::notifyListeners;
     private PhotoLibraryService service;
     private boolean pickInProgress = false;
     private PickMediaOptions pendingPickOptions;
@@ -58,14 +59,18 @@ public class PhotoLibraryPlugin extends Plugin {
     @Override
     public void load() {
         super.load();
-        service = new PhotoLibraryService(getContext(), getBridge());
-        service.prepareCacheDirectories();
+        int uploadConcurrency = getConfig().getInt("uploadConcurrency", PhotoLibraryDefaults.UPLOAD_CONCURRENCY);
+        uploadConcurrency = Math.max(1, Math.min(PhotoLibraryDefaults.MAX_UPLOAD_CONCURRENCY, uploadConcurrency));
+        boolean packThumbnails = "pack".equals(getConfig().getString("thumbnailStorage", "files"));
+        service = PhotoLibraryService.acquire(getContext(), getBridge(), uploadConcurrency, packThumbnails, eventListener);
     }
 
     @Override
     protected void handleOnDestroy() {
         super.handleOnDestroy();
-        executor.shutdown();
+        if (service != null) {
+            service.release(eventListener);
+        }
         service = null;
     }
 
@@ -113,7 +118,7 @@ public class PhotoLibraryPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        execute("getAlbums", () -> {
             try {
                 JSArray albums = service.fetchAlbums();
                 JSObject result = new JSObject();
@@ -140,13 +145,40 @@ public class PhotoLibraryPlugin extends Plugin {
             return;
         }
 
-        executor.execute(() -> {
+        if (options.useSnapshot) {
+            String snapshotKey = service.snapshotKey(options);
+            JSObject snapshot = service.readSnapshot(snapshotKey);
+            if (snapshot != null) {
+                // Stale-while-revalidate: answer from the snapshot, then re-run the query and report changes.
+                snapshot.put("snapshotId", snapshotKey);
+                snapshot.put("fromSnapshot", true);
+                call.resolve(snapshot);
+                execute("revalidateLibrary", () -> {
+                    try {
+                        JSObject payload = libraryPayload(service.fetchLibrary(options));
+                        if (service.writeSnapshot(snapshotKey, payload)) {
+                            payload.put("snapshotId", snapshotKey);
+                            notifyListeners(EVENT_LIBRARY_SNAPSHOT_CHANGED, payload);
+                        }
+                    } catch (Exception ex) {
+                        Logger.error("PhotoLibrary", "Failed to revalidate library snapshot", ex);
+                    }
+                });
+                return;
+            }
+        }
+
+        execute("getLibrary", () -> {
             try {
-                PhotoLibraryFetchResult result = service.fetchLibrary(options);
-                JSObject payload = new JSObject();
-                payload.put("assets", result.assets);
-                payload.put("totalCount", result.totalCount);
-                payload.put("hasMore", result.hasMore);
+                JSObject payload = libraryPayload(service.fetchLibrary(options));
+                if (!options.useSnapshot) {
+                    call.resolve(payload);
+                    return;
+                }
+                String snapshotKey = service.snapshotKey(options);
+                service.writeSnapshot(snapshotKey, payload);
+                payload.put("snapshotId", snapshotKey);
+                payload.put("fromSnapshot", false);
                 call.resolve(payload);
             } catch (Exception ex) {
                 call.reject(ex.getMessage(), ex);
@@ -154,6 +186,14 @@ public class PhotoLibraryPlugin extends Plugin {
         });
     }
 
+    private static JSObject libraryPayload(PhotoLibraryFetchResult result) {
+        JSObject payload = new JSObject();
+        payload.put("assets", result.assets);
+        payload.put("totalCount", result.totalCount);
+        payload.put("hasMore", result.hasMore);
+        return payload;
+    }
+
     @PluginMethod
     public void getPhotoUrl(PluginCall call) {
         if (!hasMediaPermissions()) {
@@ -161,15 +201,19 @@ public class PhotoLibraryPlugin extends Plugin {
             return;
         }
 
-        String id = call.getString("id");
-        if (id == null || id.isEmpty()) {
-            call.reject("Parameter 'id' is required");
+        PhotoUrlOptions options;
+        try {
+            options = PhotoUrlOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
             return;
         }
 
-        executor.execute(() -> {
+        execute("getPhotoUrl", () -> {
             try {
-                JSObject file = service.getFullResolutionFile(id);
+                JSObject file = options.wantsRendition()
+                    ? service.getRenditionFile(options)
+                    : service.getFullResolutionFile(options.id, options.taskId);
                 if (file == null) {
                     call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
                     return;
@@ -181,6 +225,241 @@ public class PhotoLibraryPlugin extends Plugin {
         });
     }
 
+    @PluginMethod
+    public void getImageTile(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        ImageTileOptions options;
+        try {
+            options = ImageTileOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("getImageTile", () -> {
+            try {
+                JSObject tile = service.getImageTile(options);
+                if (tile == null) {
+                    call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
+                    return;
+                }
+                call.resolve(tile);
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void cancelCopy(PluginCall call) {
+        String taskId = call.getString("taskId");
+        if (taskId == null || taskId.isEmpty()) {
+            call.reject("Parameter 'taskId' is required");
+            return;
+        }
+
+        JSObject result = new JSObject();
+        result.put("cancelled", service.cancelCopy(taskId));
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void scanLocations(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        // Without ACCESS_MEDIA_LOCATION the provider strips GPS tags, so ask for it before scanning.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && getPermissionState(PERMISSION_MEDIA_LOCATION) != PermissionState.GRANTED) {
+            requestPermissionForAlias(PERMISSION_MEDIA_LOCATION, call, "scanLocationsPermissionCallback");
+            return;
+        }
+        runLocationScan(call);
+    }
+
+    @PermissionCallback
+    private void scanLocationsPermissionCallback(PluginCall call) {
+        runLocationScan(call);
+    }
+
+    private void runLocationScan(PluginCall call) {
+        execute("scanLocations", () -> {
+            try {
+                call.resolve(service.scanLocations());
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void getLocationClusters(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        LocationClusterOptions options;
+        try {
+            options = LocationClusterOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("getLocationClusters", () -> {
+            try {
+                call.resolve(service.getLocationClusters(options));
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void findDuplicates(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        DuplicateOptions options;
+        try {
+            options = DuplicateOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("findDuplicates", () -> {
+            try {
+                call.resolve(service.findDuplicates(options));
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void getAssetDigest(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        DigestOptions options;
+        try {
+            options = DigestOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("getAssetDigest", () -> {
+            try {
+                call.resolve(service.getAssetDigest(options));
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void enqueueUpload(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        UploadOptions options;
+        try {
+            options = UploadOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("enqueueUpload", () -> {
+            try {
+                if (!service.enqueueUpload(options)) {
+                    call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
+                    return;
+                }
+                JSObject result = new JSObject();
+                result.put("taskId", options.taskId);
+                call.resolve(result);
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void cancelUpload(PluginCall call) {
+        String taskId = call.getString("taskId");
+        if (taskId == null || taskId.isEmpty()) {
+            call.reject("Parameter 'taskId' is required");
+            return;
+        }
+
+        JSObject result = new JSObject();
+        result.put("cancelled", service.cancelUpload(taskId));
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getThumbnailAtlas(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        ThumbnailAtlasOptions options;
+        try {
+            options = ThumbnailAtlasOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("getThumbnailAtlas", () -> {
+            try {
+                call.resolve(service.getThumbnailAtlas(options));
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void getTimelineBuckets(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        TimelineOptions options;
+        try {
+            options = TimelineOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("getTimelineBuckets", () -> {
+            try {
+                call.resolve(service.getTimelineBuckets(options));
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
     @PluginMethod
     public void getThumbnailUrl(PluginCall call) {
         if (!hasMediaPermissions()) {
@@ -197,10 +476,17 @@ public class PhotoLibraryPlugin extends Plugin {
         int width = call.getInt("width", PhotoLibraryDefaults.THUMBNAIL_WIDTH);
         int height = call.getInt("height", PhotoLibraryDefaults.THUMBNAIL_HEIGHT);
         double quality = call.getDouble("quality", PhotoLibraryDefaults.THUMBNAIL_QUALITY);
+        int maxBytes;
+        try {
+            maxBytes = GetLibraryOptions.maxBytesOption(call, "maxBytes");
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
 
-        executor.execute(() -> {
+        execute("getThumbnailUrl", () -> {
             try {
-                JSObject file = service.getThumbnailFile(id, width, height, quality);
+                JSObject file = service.getThumbnailFile(id, width, height, quality, maxBytes);
                 if (file == null) {
                     call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
                     return;
@@ -212,6 +498,68 @@ public class PhotoLibraryPlugin extends Plugin {
         });
     }
 
+    @PluginMethod
+    public void getThumbnailUrls(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        ThumbnailSetOptions options;
+        try {
+            options = ThumbnailSetOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("getThumbnailUrls", () -> {
+            try {
+                JSArray thumbnails = service.getThumbnailFiles(options);
+                if (thumbnails == null) {
+                    call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
+                    return;
+                }
+                JSObject result = new JSObject();
+                result.put("thumbnails", thumbnails);
+                call.resolve(result);
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void getVideoFrames(PluginCall call) {
+        if (!hasMediaPermissions()) {
+            call.reject(PhotoLibraryService.PERMISSION_ERROR);
+            return;
+        }
+
+        VideoFrameOptions options;
+        try {
+            options = VideoFrameOptions.fromCall(call);
+        } catch (IllegalArgumentException ex) {
+            call.reject(ex.getMessage());
+            return;
+        }
+
+        execute("getVideoFrames", () -> {
+            try {
+                JSArray frames = service.getVideoFrames(options);
+                if (frames == null) {
+                    call.reject(PhotoLibraryService.ASSET_NOT_FOUND);
+                    return;
+                }
+                JSObject result = new JSObject();
+                result.put("frames", frames);
+                call.resolve(result);
+            } catch (Exception ex) {
+                call.reject(ex.getMessage(), ex);
+            }
+        });
+    }
+
     @PluginMethod
     public void pickMedia(PluginCall call) {
         if (pickInProgress) {
@@ -317,15 +665,14 @@ public class PhotoLibraryPlugin extends Plugin {
         }
 
         final List<Uri> finalUris = uris;
-        executor.execute(() -> {
-            try {
-                JSArray pickedAssets = service.createAssetsFromUris(finalUris, options);
-                JSObject resultObject = new JSObject();
-                resultObject.put("assets", pickedAssets);
-                bridge.executeOnMainThread(() -> call.resolve(resultObject));
-            } catch (IOException ex) {
-                bridge.executeOnMainThread(() -> call.reject(ex.getMessage(), ex));
+        execute("pickMedia", () -> {
+            PhotoLibraryPickResult picked = service.createAssetsFromUris(finalUris, options);
+            JSObject resultObject = new JSObject();
+            resultObject.put("assets", picked.assets);
+            if (picked.errors.length() > 0) {
+                resultObject.put("errors", picked.errors);
             }
+            bridge.executeOnMainThread(() -> call.resolve(resultObject));
         });
     }
 
@@ -369,6 +716,30 @@ public class PhotoLibraryPlugin extends Plugin {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU ? PERMISSION_MEDIA : PERMISSION_MEDIA_LEGACY;
     }
 
+    @PluginMethod
+    public void getDiagnostics(PluginCall call) {
+        boolean verifyCache = call.getBoolean("verifyCache", false);
+        boolean reset = call.getBoolean("reset", false);
+        JSObject result = new JSObject();
+        result.put("calls", service.callStats().snapshot());
+        result.put("decodeMemory", service.decodeMemory());
+        if (reset) {
+            service.callStats().reset();
+        }
+        if (!verifyCache) {
+            call.resolve(result);
+            return;
+        }
+        execute("getDiagnostics", () -> {
+            result.put("cache", service.verifyCache());
+            call.resolve(result);
+        });
+    }
+
+    private void execute(String method, Runnable task) {
+        service.execute(method, task);
+    }
+
     @PluginMethod
     public void getPluginVersion(final PluginCall call) {
         try {
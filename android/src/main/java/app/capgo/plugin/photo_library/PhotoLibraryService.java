@@ -1,67 +1,271 @@
 package app.capgo.plugin.photo_library;
 
+import android.Manifest;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
 import android.media.MediaMetadataRetriever;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
 import android.util.Size;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import com.getcapacitor.Bridge;
 import com.getcapacitor.FileUtils;
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Logger;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.json.JSONException;
 
 final class PhotoLibraryService {
 
     static final String PERMISSION_ERROR = "Permission Denial: This application is not allowed to access photo data.";
     static final String ASSET_NOT_FOUND = "Asset not found";
 
+    // Platform thumbnails at this size come from the MediaStore cache and are plenty for a 9x8 hash.
+    private static final int HASH_THUMBNAIL_SIZE = 64;
+    // Placeholders only carry a few blurred components, so a tiny decode is enough.
+    private static final int PLACEHOLDER_SIZE = 32;
+    private static final int MAX_TIMELINE_ENTRIES = 16;
+    // Files are mapped in windows so huge videos do not need a single multi-gigabyte mapping.
+    private static final long DIGEST_MAP_WINDOW = 64L * 1024 * 1024;
+    // MediaStore queries bind at most 999 arguments.
+    private static final int ID_QUERY_BATCH = 500;
+    private static final long SCAN_TASK_TIMEOUT_MS = 30_000;
+    // Digests read whole originals, so large videos get longer before they count as stuck.
+    private static final long DIGEST_TASK_TIMEOUT_MS = 120_000;
+
+    private static final Object SHARED_LOCK = new Object();
+
+    @Nullable
+    private static PhotoLibraryService shared;
+
+    private static int references;
+
     private final Context context;
-    private final Bridge bridge;
+    @Nullable
+    private volatile Bridge bridge;
+
+    @Nullable
+    private CopyTasks.Listener eventListener;
     private final ContentResolver resolver;
     private final File cacheRoot;
     private final File thumbnailDirectory;
     private final File fileDirectory;
+    private final File renditionDirectory;
+    private final File tileDirectory;
+    private final File atlasDirectory;
     private final DateTimeFormatter isoFormatter;
-    private final Map<String, PickedItem> pickedItems = new ConcurrentHashMap<>();
+    private final PickedItemStore pickedItems;
+    private final Map<String, Object> copyLocks = new ConcurrentHashMap<>();
+    private final CopyTasks copyTasks = new CopyTasks();
+    private final VideoFrameExtractor frameExtractor;
+    private final RegionDecoderCache regionDecoders;
+    private final LocationIndex locationIndex;
+    private final PerceptualHashIndex hashIndex;
+    private final DigestCache digestCache;
+    private final PlaceholderCache placeholderCache;
+    private final LibrarySnapshots snapshots;
+    private final ThumbnailStore thumbnailStore;
+    private final ThumbnailRenditions thumbnailRenditions;
+    private final UploadQueue uploadQueue;
+    private final Map<String, TimelineEntry> timelineCache = new ConcurrentHashMap<>();
+    private final ExecutorService pickExecutor = Executors.newFixedThreadPool(
+        Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()))
+    );
+    private final ExecutorService callExecutor = Executors.newFixedThreadPool(
+        Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()))
+    );
+    // Calls wait on volume queries from callExecutor, so they need a separate pool.
+    private final ExecutorService volumeExecutor = Executors.newFixedThreadPool(4);
+    private final ExecutorService scanExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private final DecodeBudget decodeBudget;
+    private volatile boolean libraryChanged = true;
+
+    @Nullable
+    private volatile String libraryToken;
+    private final CallStats callStats = new CallStats();
 
-    PhotoLibraryService(Context context, Bridge bridge) {
+    private PhotoLibraryService(Context context, int uploadConcurrency, boolean packThumbnails) {
         this.context = context.getApplicationContext();
-        this.bridge = bridge;
-        this.resolver = context.getContentResolver();
-        this.cacheRoot = new File(context.getCacheDir(), "photoLibrary");
+        this.resolver = this.context.getContentResolver();
+        this.cacheRoot = new File(this.context.getCacheDir(), "photoLibrary");
         this.thumbnailDirectory = new File(cacheRoot, "thumbnails");
         this.fileDirectory = new File(cacheRoot, "files");
+        this.renditionDirectory = new File(cacheRoot, "renditions");
+        this.tileDirectory = new File(cacheRoot, "tiles");
+        this.atlasDirectory = new File(cacheRoot, "atlases");
+        this.regionDecoders = new RegionDecoderCache(resolver);
+        this.locationIndex = new LocationIndex(new File(cacheRoot, "locations.bin"));
+        this.hashIndex = new PerceptualHashIndex(new File(cacheRoot, "phashes.bin"));
+        this.digestCache = new DigestCache(new File(cacheRoot, "digests.bin"));
+        this.placeholderCache = new PlaceholderCache(new File(cacheRoot, "placeholders.bin"));
+        this.snapshots = new LibrarySnapshots(new File(cacheRoot, "snapshots"));
+        this.thumbnailStore = packThumbnails
+            ? new ThumbnailPack(new File(cacheRoot, "thumbnail-pack"))
+            : new ThumbnailFiles(thumbnailDirectory);
+        this.thumbnailRenditions = new ThumbnailRenditions(thumbnailStore);
         this.isoFormatter = DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone(ZoneOffset.UTC);
+        this.frameExtractor = new VideoFrameExtractor(this.context);
+        this.pickedItems = new PickedItemStore(new File(cacheRoot, "picked-index.json"), fileDirectory);
+        this.uploadQueue = new UploadQueue(resolver, uploadConcurrency);
+        this.decodeBudget = DecodeBudget.forContext(this.context);
+        resolver.registerContentObserver(
+            Uri.parse("content://" + MediaStore.AUTHORITY),
+            true,
+            new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    libraryChanged = true;
+                }
+            }
+        );
+        this.context.registerComponentCallbacks(
+            new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    trimMemory(level);
+                }
+
+                @Override
+                public void onLowMemory() {
+                    trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration configuration) {}
+            }
+        );
+    }
+
+    private void trimMemory(int level) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            if (hashIndex.hasPending()) {
+                callExecutor.execute(hashIndex::save);
+            }
+            if (placeholderCache.isDirty()) {
+                callExecutor.execute(placeholderCache::save);
+            }
+        }
+        if (!decodeBudget.trim(level)) {
+            return;
+        }
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            regionDecoders.clear();
+            frameExtractor.clear();
+        }
+    }
+
+    JSObject decodeMemory() {
+        JSObject result = new JSObject();
+        result.put("capacity", decodeBudget.capacity());
+        result.put("reserved", decodeBudget.reserved());
+        return result;
+    }
+
+    /** The service lives as long as the process; the configuration of the first caller wins. */
+    static PhotoLibraryService acquire(
+        Context context,
+        Bridge bridge,
+        int uploadConcurrency,
+        boolean packThumbnails,
+        CopyTasks.Listener listener
+    ) {
+        synchronized (SHARED_LOCK) {
+            if (shared == null) {
+                shared = new PhotoLibraryService(context, uploadConcurrency, packThumbnails);
+                shared.prepareCacheDirectories();
+            }
+            references++;
+            shared.bridge = bridge;
+            shared.setEventListener(listener);
+            return shared;
+        }
+    }
+
+    /** Keeps running after the last detach, since a recreated activity attaches only after the old one is destroyed. */
+    void release(CopyTasks.Listener listener) {
+        synchronized (SHARED_LOCK) {
+            references = Math.max(0, references - 1);
+            if (eventListener == listener) {
+                setEventListener(null);
+            }
+            if (references == 0) {
+                bridge = null;
+            }
+        }
+    }
+
+    void execute(String method, Runnable task) {
+        callExecutor.execute(callStats.timed(method, task, this::persistAfterCall));
     }
 
-    void prepareCacheDirectories() {
+    private void persistAfterCall() {
+        thumbnailStore.flush();
+        pickedItems.saveIfDirty();
+        hashIndex.saveIfDue();
+        placeholderCache.saveIfDue();
+    }
+
+    CallStats callStats() {
+        return callStats;
+    }
+
+    private void prepareCacheDirectories() {
         if (!cacheRoot.exists()) {
             cacheRoot.mkdirs();
         }
@@ -71,6 +275,41 @@ final class PhotoLibraryService {
         if (!fileDirectory.exists()) {
             fileDirectory.mkdirs();
         }
+        if (!renditionDirectory.exists()) {
+            renditionDirectory.mkdirs();
+        }
+        if (!tileDirectory.exists()) {
+            tileDirectory.mkdirs();
+        }
+        if (!atlasDirectory.exists()) {
+            atlasDirectory.mkdirs();
+        }
+        File snapshotDirectory = new File(cacheRoot, "snapshots");
+        if (!snapshotDirectory.exists()) {
+            snapshotDirectory.mkdirs();
+        }
+        snapshots.load();
+        pickedItems.load();
+        pickExecutor.execute(this::expirePickedItems);
+    }
+
+    private void setEventListener(@Nullable CopyTasks.Listener listener) {
+        eventListener = listener;
+        copyTasks.setListener(listener);
+        uploadQueue.setListener(listener);
+    }
+
+    boolean cancelCopy(String taskId) {
+        return copyTasks.cancel(taskId);
+    }
+
+    boolean cancelUpload(String taskId) {
+        return uploadQueue.cancel(taskId);
+    }
+
+    JSObject verifyCache() {
+        File[] directories = new File[] { thumbnailDirectory, fileDirectory, renditionDirectory, tileDirectory, atlasDirectory };
+        return CacheVerifier.verify(directories, fileDirectory, thumbnailStore, CacheVerifier::isIntactImage);
     }
 
     JSArray fetchAlbums() {
@@ -91,246 +330,1606 @@ final class PhotoLibraryService {
 
     PhotoLibraryFetchResult fetchLibrary(GetLibraryOptions options) throws IOException {
         Uri contentUri = getFilesUri();
-        String[] projection = new String[] {
-            MediaStore.Files.FileColumns._ID,
-            MediaStore.Files.FileColumns.DISPLAY_NAME,
-            MediaStore.Files.FileColumns.MIME_TYPE,
-            MediaStore.Files.FileColumns.MEDIA_TYPE,
-            MediaStore.Files.FileColumns.SIZE,
-            MediaStore.Files.FileColumns.DATE_ADDED,
-            MediaStore.Files.FileColumns.DATE_MODIFIED,
-            MediaStore.Images.Media.DATE_TAKEN,
-            MediaStore.Images.Media.WIDTH,
-            MediaStore.Images.Media.HEIGHT,
-            MediaStore.Video.Media.DURATION,
-            MediaStore.Images.Media.BUCKET_ID,
-            MediaStore.Images.Media.BUCKET_DISPLAY_NAME
-        };
-
+        String[] projection = libraryProjection(options);
         Selection selection = buildSelection(options);
-        int totalCount = countItems(contentUri, selection);
+        List<String> volumes = externalVolumes();
+        locationIndex.load();
+        if (wantsPlaceholder(options)) {
+            placeholderCache.load();
+        }
+
+        int totalCount;
+        List<Cursor> volumeCursors = new ArrayList<>();
+        int offsetInSql = 0;
+        if (volumes.size() > 1) {
+            totalCount = 0;
+            for (VolumeQuery query : queryVolumes(volumes, projection, selection, options)) {
+                totalCount += query.count;
+                volumeCursors.add(query.cursor);
+            }
+        } else {
+            totalCount = countItems(contentUri, selection);
+            volumeCursors.add(resolver.query(contentUri, projection, selection.selection, selection.args, buildSortOrder(options)));
+            offsetInSql = options.limit != null ? options.offset : 0;
+        }
 
-        String sortOrder = buildSortOrder(options);
         JSArray assetsArray = new JSArray();
         int collected = 0;
-        int skipped = 0;
-
-        try (Cursor cursor = resolver.query(contentUri, projection, selection.selection, selection.args, sortOrder)) {
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    if (options.limit == null && options.offset > 0 && skipped < options.offset) {
-                        skipped++;
-                        continue;
-                    }
-                    if (options.limit != null && collected >= options.limit) {
-                        break;
-                    }
-                    JSObject asset = buildAsset(cursor, options);
-                    if (asset != null) {
-                        assetsArray.put(asset);
-                        collected++;
-                    }
+        int skipped = offsetInSql;
+        try (VolumeCursors cursors = new VolumeCursors(volumeCursors, options.sortBy, options.sortAscending)) {
+            while (cursors.moveToNext()) {
+                if (skipped < options.offset) {
+                    skipped++;
+                    continue;
+                }
+                if (options.limit != null && collected >= options.limit) {
+                    break;
+                }
+                JSObject asset = buildAsset(cursors.current(), options);
+                if (asset != null) {
+                    assetsArray.put(asset);
+                    collected++;
                 }
             }
         }
 
+
         int consumed = options.limit != null ? options.offset + collected : Math.min(totalCount, options.offset) + collected;
         boolean hasMore = consumed < totalCount;
         return new PhotoLibraryFetchResult(assetsArray, totalCount, hasMore);
     }
 
-    JSArray createAssetsFromUris(List<Uri> uris, PickMediaOptions options) throws IOException {
-        JSArray array = new JSArray();
-        for (Uri uri : uris) {
-            JSObject asset = createAssetFromUri(uri, options);
-            if (asset != null) {
-                try {
-                    array.put(asset);
-                } catch (Exception e) {
-                    Logger.error("PhotoLibrary", "Failed to add picked asset", e);
+    // _ID, MEDIA_TYPE and the volume back the asset id and the sort columns merge volumes; the rest follows the mask.
+    private String[] libraryProjection(GetLibraryOptions options) {
+        Set<String> columns = new LinkedHashSet<>();
+        columns.add(MediaStore.Files.FileColumns._ID);
+        columns.add(MediaStore.Files.FileColumns.MEDIA_TYPE);
+        columns.add(options.sortBy.column);
+        if (options.sortBy.fallbackColumn != null) {
+            columns.add(options.sortBy.fallbackColumn);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            columns.add(MediaStore.MediaColumns.VOLUME_NAME);
+        }
+        // Thumbnails, full files and placeholders are keyed on the MediaAsset built from these.
+        boolean needsSource = wantsThumbnail(options) || wantsFile(options) || wantsPlaceholder(options);
+        if (needsSource || options.wants("fileName") || options.wants("mimeType")) {
+            columns.add(MediaStore.Files.FileColumns.DISPLAY_NAME);
+            columns.add(MediaStore.Files.FileColumns.MIME_TYPE);
+        }
+        if (needsSource || options.wants("modificationDate")) {
+            columns.add(MediaStore.Files.FileColumns.DATE_MODIFIED);
+        }
+        if (options.wants("creationDate")) {
+            columns.add(MediaStore.Images.Media.DATE_TAKEN);
+            columns.add(MediaStore.Files.FileColumns.DATE_ADDED);
+        }
+        if (options.wants("size")) {
+            columns.add(MediaStore.Files.FileColumns.SIZE);
+        }
+        if (options.wants("width") || options.wants("height")) {
+            columns.add(MediaStore.Images.Media.WIDTH);
+            columns.add(MediaStore.Images.Media.HEIGHT);
+        }
+        if (options.wants("duration")) {
+            columns.add(MediaStore.Video.Media.DURATION);
+        }
+        if (options.includeAlbumData && options.wants("albumIds")) {
+            columns.add(MediaStore.Images.Media.BUCKET_ID);
+        }
+        return columns.toArray(new String[0]);
+    }
+
+    private static boolean wantsThumbnail(GetLibraryOptions options) {
+        return options.thumbnailWidth > 0 && options.thumbnailHeight > 0 && options.wants("thumbnail");
+    }
+
+    private static boolean wantsFile(GetLibraryOptions options) {
+        return options.includeFullResolutionData && options.wants("file");
+    }
+
+    private static boolean wantsPlaceholder(GetLibraryOptions options) {
+        return options.includePlaceholder && (options.wants("blurHash") || options.wants("dominantColor"));
+    }
+
+    private List<String> externalVolumes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return Collections.singletonList(MediaStore.VOLUME_EXTERNAL);
+        }
+        List<String> volumes = new ArrayList<>(MediaStore.getExternalVolumeNames(context));
+        Collections.sort(volumes);
+        return volumes;
+    }
+
+    // Each volume returns its first offset + limit rows, which always contain the merged page.
+    private List<VolumeQuery> queryVolumes(List<String> volumes, String[] projection, Selection selection, GetLibraryOptions options)
+        throws IOException {
+        Integer perVolumeLimit = options.limit != null ? options.offset + options.limit : null;
+        String sortOrder = buildSortOrder(options, perVolumeLimit, 0);
+        List<Future<VolumeQuery>> futures = new ArrayList<>(volumes.size());
+        for (String volume : volumes) {
+            Uri uri = MediaStore.Files.getContentUri(volume);
+            futures.add(
+                volumeExecutor.submit(() -> {
+                    int count = countItems(uri, selection);
+                    return new VolumeQuery(resolver.query(uri, projection, selection.selection, selection.args, sortOrder), count);
+                })
+            );
+        }
+
+        List<VolumeQuery> queries = new ArrayList<>(volumes.size());
+        IOException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                queries.add(futures.get(i).get());
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                Logger.error("PhotoLibrary", "Failed to query volume " + volumes.get(i), cause);
+                // A volume ejected mid-query should not fail the whole page.
+                if (!(cause instanceof IllegalArgumentException)) {
+                    failure = new IOException(cause.getMessage() != null ? cause.getMessage() : cause.toString(), cause);
                 }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failure = new IOException("Interrupted", ex);
             }
         }
-        return array;
+        if (failure != null) {
+            for (VolumeQuery query : queries) {
+                if (query.cursor != null) {
+                    query.cursor.close();
+                }
+            }
+            throw failure;
+        }
+        return queries;
+    }
+
+    // Packed thumbnails are offsets into one pack generation, so the generation is part of the key.
+    String snapshotKey(GetLibraryOptions options) {
+        Selection selection = buildSelection(options);
+        long packGeneration = thumbnailStore instanceof ThumbnailPack ? ((ThumbnailPack) thumbnailStore).generation() : -1;
+        return hashed(
+            String.format(
+                Locale.US,
+                "%s|%s|%s|%dx%d|%.3f|%d|%b|%b|%b|%s|%d",
+                selection.selection,
+                Arrays.toString(selection.args),
+                buildSortOrder(options),
+                options.thumbnailWidth,
+                options.thumbnailHeight,
+                options.thumbnailQuality,
+                options.thumbnailMaxBytes,
+                options.includeAlbumData,
+                options.includeFullResolutionData,
+                options.includePlaceholder,
+                options.fields != null ? new TreeSet<>(options.fields) : "*",
+                packGeneration
+            )
+        ).substring(0, 16);
     }
 
     @Nullable
-    private JSObject createAssetFromUri(Uri uri, PickMediaOptions options) throws IOException {
-        InputStream stream = resolver.openInputStream(uri);
-        if (stream == null) {
+    JSObject readSnapshot(String key) {
+        LibrarySnapshots.Snapshot snapshot = snapshots.read(key);
+        if (snapshot == null) {
             return null;
         }
+        try {
+            return new JSObject(snapshot.payload);
+        } catch (JSONException ex) {
+            return null;
+        }
+    }
+
+    /** Returns {@code true} when the page differs from the stored snapshot. */
+    boolean writeSnapshot(String key, JSObject payload) {
+        // The page may reference thumbnails that are only committed at the end of the call.
+        thumbnailStore.flush();
+        String serialized = payload.toString();
+        String generation = libraryGeneration();
+        LibrarySnapshots.Snapshot previous = snapshots.read(key);
+        if (previous != null && previous.generation.equals(generation) && previous.payload.equals(serialized)) {
+            return false;
+        }
+        snapshots.write(key, generation, serialized);
+        return previous != null && !previous.payload.equals(serialized);
+    }
+
+    PhotoLibraryPickResult createAssetsFromUris(List<Uri> uris, PickMediaOptions options) {
+        List<Future<JSObject>> futures = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            futures.add(pickExecutor.submit(() -> createAssetFromUri(uri, options)));
+        }
+
+        // Futures are drained in submission order so results follow the user's selection order.
+        JSArray array = new JSArray();
+        JSArray errors = new JSArray();
+        for (int i = 0; i < futures.size(); i++) {
+            String message;
+            try {
+                JSObject asset = futures.get(i).get();
+                if (asset != null) {
+                    array.put(asset);
+                    continue;
+                }
+                message = "Unable to read the selected item";
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                Logger.error("PhotoLibrary", "Failed to process picked item", cause);
+                message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                message = "Interrupted";
+            }
+            JSObject error = new JSObject();
+            error.put("index", i);
+            error.put("message", message);
+            errors.put(error);
+        }
+        pickedItems.save();
+        return new PhotoLibraryPickResult(array, errors);
+    }
+
+    private void expirePickedItems() {
+        List<PickedItem> expired = pickedItems.expire(System.currentTimeMillis() - PhotoLibraryDefaults.PICKED_ITEM_TTL_MS);
+        for (PickedItem item : pickedItems.snapshot()) {
+            if (item.file.exists() || item.source == null) {
+                continue;
+            }
+            try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(item.source, "r")) {
+                if (descriptor != null) {
+                    continue;
+                }
+            } catch (IOException | SecurityException ignored) {}
+            pickedItems.remove(item.identifier);
+            expired.add(item);
+        }
+
+        if (expired.isEmpty()) {
+            return;
+        }
+        for (PickedItem item : expired) {
+            //noinspection ResultOfMethodCallIgnored
+            item.file.delete();
+            String prefix = hashed(item.identifier) + "_";
+            thumbnailRenditions.forget(hashed(item.identifier));
+            thumbnailStore.removeAsset(hashed(item.identifier));
+            for (File directory : new File[] { thumbnailDirectory, renditionDirectory, tileDirectory }) {
+                File[] derived = directory.listFiles((dir, name) -> name.startsWith(prefix));
+                if (derived == null) {
+                    continue;
+                }
+                for (File file : derived) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+        pickedItems.save();
+    }
 
+    @Nullable
+    private JSObject createAssetFromUri(Uri uri, PickMediaOptions options) throws IOException {
         String mimeType = resolver.getType(uri);
         String type = (mimeType != null && mimeType.startsWith("video")) ? "video" : "image";
-        String identifier = "picked:" + UUID.randomUUID();
 
         String displayName = null;
         long reportedSize = -1;
-        try (Cursor cursor = resolver.query(uri, new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE }, null, null, null)) {
+        long lastModified = -1;
+        try (Cursor cursor = resolver.query(uri, null, null, null, null)) {
             if (cursor != null && cursor.moveToFirst()) {
                 int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
                 if (nameIndex != -1) {
                     displayName = cursor.getString(nameIndex);
                 }
                 int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
-                if (sizeIndex != -1) {
+                if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
                     reportedSize = cursor.getLong(sizeIndex);
                 }
+                int modifiedIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (modifiedIndex != -1 && !cursor.isNull(modifiedIndex)) {
+                    lastModified = cursor.getLong(modifiedIndex);
+                }
             }
         }
 
+        // Same source, size and modification time means same content: reuse the existing entry.
+        String sourceKey = uri + "|" + reportedSize + "|" + lastModified;
+        String identifier = "picked:" + hashed(sourceKey).substring(0, 32);
         String extension = guessExtension(mimeType);
-        File file = new File(fileDirectory, hashed(identifier) + extension);
-        try (InputStream in = stream; FileOutputStream out = new FileOutputStream(file)) {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
+
+        PickedItem picked = pickedItems.get(identifier);
+        boolean created = picked == null;
+        if (picked == null) {
+            String resolvedMime = mimeType != null ? mimeType : ("image".equals(type) ? "image/jpeg" : "application/octet-stream");
+            File file = new File(fileDirectory, hashed(identifier) + extension);
+
+            long size;
+            MediaDimensions dimensions;
+            if (options.copyToCache) {
+                if (copyIntoCache(file, uri, identifier, null) == null) {
+                    return null;
+                }
+                size = file.length();
+                if (size <= 0 && reportedSize > 0) {
+                    size = reportedSize;
+                }
+                dimensions = "image".equals(type) ? readImageDimensions(file) : readVideoDimensions(file);
+            } else {
+                // Lazy mode: only headers are read here, the copy happens on getPhotoUrl.
+                try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r")) {
+                    if (descriptor == null) {
+                        return null;
+                    }
+                    size = reportedSize > 0 ? reportedSize : descriptor.getStatSize();
+                    dimensions = "image".equals(type)
+                        ? readImageDimensions(descriptor.getFileDescriptor())
+                        : readVideoDimensions(descriptor.getFileDescriptor());
+                }
             }
+
+            picked = new PickedItem(
+                identifier,
+                file,
+                resolvedMime,
+                type,
+                uri,
+                sourceKey,
+                displayName != null ? displayName : identifier + extension,
+                size,
+                dimensions.width,
+                dimensions.height,
+                dimensions.durationSeconds,
+                System.currentTimeMillis()
+            );
+            pickedItems.put(picked);
+        } else if (options.copyToCache && ensurePickedFile(picked, null) == null) {
+            return null;
         }
 
-        long size = file.length();
-        if (size <= 0 && reportedSize > 0) {
-            size = reportedSize;
+        JSObject asset = new JSObject();
+        try {
+            asset.put("id", identifier);
+            asset.put("fileName", picked.fileName);
+            asset.put("type", picked.type);
+            asset.put("width", picked.width);
+            asset.put("height", picked.height);
+            if (picked.durationSeconds != null) {
+                asset.put("duration", picked.durationSeconds);
+            }
+            asset.put("mimeType", picked.mimeType);
+            asset.put("size", picked.size);
+
+            if (picked.file.exists()) {
+                JSObject fileObject = createFileObject(picked.file, picked.mimeType);
+                asset.put("file", fileObject);
+            }
+
+            JSObject thumbnail = ensurePickedThumbnail(
+                identifier,
+                picked,
+                options.thumbnailWidth,
+                options.thumbnailHeight,
+                options.thumbnailQuality,
+                options.thumbnailMaxBytes
+            );
+            if (thumbnail != null) {
+                asset.put("thumbnail", thumbnail);
+            }
+        } catch (Exception e) {
+            Logger.error("PhotoLibrary", "Failed to build picked asset", e);
+            if (created) {
+                pickedItems.remove(identifier);
+                if (picked.file.exists()) {
+                    //noinspection ResultOfMethodCallIgnored
+                    picked.file.delete();
+                }
+            }
+            return null;
+        }
+
+        return asset;
+    }
+
+    @Nullable
+    private File ensurePickedFile(PickedItem picked, @Nullable String taskId) throws IOException {
+        if (picked.source == null) {
+            return picked.file.exists() ? picked.file : null;
+        }
+        return copyIntoCache(picked.file, picked.source, picked.identifier, taskId);
+    }
+
+    @Nullable
+    private File copyIntoCache(File target, Uri source, String assetId, @Nullable String taskId) throws IOException {
+        if (target.exists()) {
+            return target;
+        }
+
+        Object lock = copyLocks.computeIfAbsent(target.getName(), (key) -> new Object());
+        synchronized (lock) {
+            if (target.exists()) {
+                return target;
+            }
+            try (AssetFileDescriptor descriptor = resolver.openAssetFileDescriptor(source, "r")) {
+                if (descriptor == null) {
+                    return null;
+                }
+                try (InputStream in = descriptor.createInputStream()) {
+                    String id = taskId != null ? taskId : UUID.randomUUID().toString();
+                    copyTasks.copy(in, target, id, assetId, descriptor.getLength());
+                }
+            }
+        }
+        return target;
+    }
+
+    private MediaDimensions readImageDimensions(File file) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), opts);
+        return new MediaDimensions(opts.outWidth, opts.outHeight, null);
+    }
+
+    private MediaDimensions readImageDimensions(FileDescriptor descriptor) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(descriptor, null, opts);
+        return new MediaDimensions(opts.outWidth, opts.outHeight, null);
+    }
+
+    private MediaDimensions readVideoDimensions(File file) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getAbsolutePath());
+            return readVideoDimensions(retriever);
+        } catch (Exception ignored) {
+            return new MediaDimensions(0, 0, null);
+        } finally {
+            releaseRetriever(retriever);
+        }
+    }
+
+    private MediaDimensions readVideoDimensions(FileDescriptor descriptor) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(descriptor);
+            return readVideoDimensions(retriever);
+        } catch (Exception ignored) {
+            return new MediaDimensions(0, 0, null);
+        } finally {
+            releaseRetriever(retriever);
         }
+    }
 
+    private MediaDimensions readVideoDimensions(MediaMetadataRetriever retriever) {
         int width = 0;
         int height = 0;
         Double durationSeconds = null;
 
-        if ("image".equals(type)) {
-            BitmapFactory.Options opts = new BitmapFactory.Options();
-            opts.inJustDecodeBounds = true;
-            BitmapFactory.decodeFile(file.getAbsolutePath(), opts);
-            width = opts.outWidth;
-            height = opts.outHeight;
-        } else if ("video".equals(type)) {
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            try {
-                retriever.setDataSource(file.getAbsolutePath());
-                String widthVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
-                String heightVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
-                String rotationVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
-                String durationVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-
-                if (widthVal != null) {
-                    width = Integer.parseInt(widthVal);
-                }
-                if (heightVal != null) {
-                    height = Integer.parseInt(heightVal);
-                }
-                if (rotationVal != null) {
-                    int rotation = Integer.parseInt(rotationVal);
-                    if (rotation == 90 || rotation == 270) {
-                        int tmp = width;
-                        width = height;
-                        height = tmp;
+        String widthVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
+        String heightVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+        String rotationVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+        String durationVal = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+
+        if (widthVal != null) {
+            width = Integer.parseInt(widthVal);
+        }
+        if (heightVal != null) {
+            height = Integer.parseInt(heightVal);
+        }
+        if (rotationVal != null) {
+            int rotation = Integer.parseInt(rotationVal);
+            if (rotation == 90 || rotation == 270) {
+                int tmp = width;
+                width = height;
+                height = tmp;
+            }
+        }
+        if (durationVal != null) {
+            long durationMs = Long.parseLong(durationVal);
+            durationSeconds = durationMs / 1000.0;
+        }
+        return new MediaDimensions(width, height, durationSeconds);
+    }
+
+    private void releaseRetriever(MediaMetadataRetriever retriever) {
+        try {
+            retriever.release();
+        } catch (Exception ignored) {}
+    }
+
+    @Nullable
+    JSObject getFullResolutionFile(String assetId, @Nullable String taskId) throws IOException {
+        PickedItem picked = pickedItems.get(assetId);
+        if (picked != null) {
+            File file = ensurePickedFile(picked, taskId);
+            return file != null ? createFileObject(file, picked.mimeType) : null;
+        }
+
+        MediaAsset asset = findAsset(assetId);
+        if (asset == null) {
+            return null;
+        }
+
+        File file = ensureFullFile(asset, taskId);
+        if (file == null) {
+            return null;
+        }
+        long size = file.length();
+        JSObject result = new JSObject();
+        result.put("path", file.getAbsolutePath());
+        result.put("webPath", portablePath(file));
+        result.put("mimeType", asset.mimeType);
+        result.put("size", size);
+        return result;
+    }
+
+    @Nullable
+    JSObject getRenditionFile(PhotoUrlOptions options) throws IOException {
+        Uri source;
+        PickedItem picked = pickedItems.get(options.id);
+        if (picked != null) {
+            if (!"image".equals(picked.type)) {
+                return getFullResolutionFile(options.id, options.taskId);
+            }
+            source = picked.file.exists() || picked.source == null ? Uri.fromFile(picked.file) : picked.source;
+        } else {
+            MediaAsset asset = findAsset(options.id);
+            if (asset == null) {
+                return null;
+            }
+            if (asset.mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
+                return getFullResolutionFile(options.id, options.taskId);
+            }
+            source = asset.uri;
+        }
+
+        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(options.quality * 100)));
+        String name = String.format(
+            Locale.US,
+            "%s_%dx%d_q%d%s",
+            hashed(options.id),
+            options.maxWidth,
+            options.maxHeight,
+            qualityPercent,
+            BitmapUtils.extension(options.format)
+        );
+        File target = new File(renditionDirectory, name);
+        if (!target.exists() && !writeRendition(source, target, options, qualityPercent)) {
+            return null;
+        }
+        return createFileObject(target, BitmapUtils.mimeType(options.format));
+    }
+
+    private boolean writeRendition(Uri source, File target, PhotoUrlOptions options, int qualityPercent) throws IOException {
+        int orientation;
+        try (InputStream in = resolver.openInputStream(source)) {
+            if (in == null) {
+                return false;
+            }
+            orientation = BitmapUtils.readOrientation(in);
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(source)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return false;
+        }
+
+        // Bounds are expressed in display orientation; swap them to match the encoded pixels.
+        boolean swap = BitmapUtils.swapsDimensions(orientation);
+        BitmapFactory.Options decode = new BitmapFactory.Options();
+        decode.inSampleSize = BitmapUtils.sampleSize(
+            bounds.outWidth,
+            bounds.outHeight,
+            swap ? options.maxHeight : options.maxWidth,
+            swap ? options.maxWidth : options.maxHeight
+        );
+        File partial = new File(target.getParentFile(), target.getName() + ".part");
+        // The oriented copy is at most as large as the decode and briefly coexists with it.
+        long decodeBytes = DecodeBudget.bitmapBytes(bounds.outWidth, bounds.outHeight, decode.inSampleSize);
+        try (DecodeBudget.Reservation ignored = decodeBudget.reserve(2 * decodeBytes)) {
+            Bitmap bitmap;
+            try (InputStream in = resolver.openInputStream(source)) {
+                bitmap = BitmapFactory.decodeStream(in, null, decode);
+            }
+            if (bitmap == null) {
+                return false;
+            }
+
+            Bitmap rendition = BitmapUtils.orientAndFit(bitmap, orientation, options.maxWidth, options.maxHeight);
+            try (FileOutputStream out = new FileOutputStream(partial)) {
+                rendition.compress(BitmapUtils.compressFormat(options.format), qualityPercent, out);
+            } finally {
+                rendition.recycle();
+            }
+        }
+        if (!partial.renameTo(target)) {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /** The rectangle is in display orientation at full resolution; {@code level} n downsamples by 2^n. */
+    @Nullable
+    JSObject getImageTile(ImageTileOptions options) throws IOException {
+        Uri source;
+        PickedItem picked = pickedItems.get(options.id);
+        if (picked != null) {
+            if (!"image".equals(picked.type)) {
+                throw new IllegalArgumentException("Asset is not an image");
+            }
+            source = picked.file.exists() || picked.source == null ? Uri.fromFile(picked.file) : picked.source;
+        } else {
+            MediaAsset asset = findAsset(options.id);
+            if (asset == null) {
+                return null;
+            }
+            if (asset.mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
+                throw new IllegalArgumentException("Asset is not an image");
+            }
+            source = asset.uri;
+        }
+
+        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(options.quality * 100)));
+        String name = String.format(
+            Locale.US,
+            "%s_L%d_%d_%d_%dx%d_q%d%s",
+            hashed(options.id),
+            options.level,
+            options.x,
+            options.y,
+            options.width,
+            options.height,
+            qualityPercent,
+            BitmapUtils.extension(options.format)
+        );
+        File target = new File(tileDirectory, name);
+        if (target.exists()) {
+            return createFileObject(target, BitmapUtils.mimeType(options.format));
+        }
+
+        // The tile and its oriented copy, at the requested level.
+        long tileBytes = DecodeBudget.bitmapBytes(options.width, options.height, 1 << options.level);
+        try (DecodeBudget.Reservation ignored = decodeBudget.reserve(2 * tileBytes)) {
+            Bitmap tile = null;
+            for (int attempt = 0; attempt < 2 && tile == null; attempt++) {
+                RegionDecoderCache.Entry entry = regionDecoders.get(options.id, source);
+                if (entry == null) {
+                    return null;
+                }
+                boolean swap = BitmapUtils.swapsDimensions(entry.orientation);
+                int sourceWidth = entry.decoder.getWidth();
+                int sourceHeight = entry.decoder.getHeight();
+                int displayWidth = swap ? sourceHeight : sourceWidth;
+                int displayHeight = swap ? sourceWidth : sourceHeight;
+                if (options.x >= displayWidth || options.y >= displayHeight) {
+                    throw new IllegalArgumentException("The tile rectangle must lie inside the image");
+                }
+                int width = Math.min(options.width, displayWidth - options.x);
+                int height = Math.min(options.height, displayHeight - options.y);
+
+                Rect region = BitmapUtils.sourceRect(entry.orientation, sourceWidth, sourceHeight, options.x, options.y, width, height);
+                tile = entry.decode(region, 1 << options.level);
+                if (tile != null) {
+                    tile = BitmapUtils.orientAndFit(tile, entry.orientation, 0, 0);
+                }
+            }
+            if (tile == null) {
+                return null;
+            }
+
+            File partial = new File(target.getParentFile(), target.getName() + ".part");
+            try (FileOutputStream out = new FileOutputStream(partial)) {
+                tile.compress(BitmapUtils.compressFormat(options.format), qualityPercent, out);
+            } finally {
+                tile.recycle();
+            }
+            if (!partial.renameTo(target)) {
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+                return null;
+            }
+        }
+
+        return createFileObject(target, BitmapUtils.mimeType(options.format));
+    }
+
+    JSObject getThumbnailAtlas(ThumbnailAtlasOptions options) throws IOException {
+        GetLibraryOptions library = options.library;
+        Selection selection = buildSelection(library);
+        String sortOrder = buildSortOrder(library);
+        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(options.quality * 100)));
+        String pageKey = hashed(
+            String.format(
+                Locale.US,
+                "%s|%s|%s|%dx%d|%d|%s|%d",
+                selection.selection,
+                Arrays.toString(selection.args),
+                sortOrder,
+                options.tileWidth,
+                options.tileHeight,
+                options.columns,
+                options.format,
+                qualityPercent
+            )
+        ).substring(0, 32);
+        String baseName = pageKey + "_" + hashed(libraryGeneration()).substring(0, 16);
+        File image = new File(atlasDirectory, baseName + BitmapUtils.extension(options.format));
+        File map = new File(atlasDirectory, baseName + ".json");
+        String mimeType = BitmapUtils.mimeType(options.format);
+
+        if (image.exists() && map.exists()) {
+            try {
+                JSObject cached = new JSObject(readText(map));
+                cached.put("file", createFileObject(image, mimeType));
+                return cached;
+            } catch (JSONException | IOException ex) {
+                Logger.debug("PhotoLibrary", "Discarding unreadable atlas map: " + ex.getMessage());
+            }
+        }
+
+        int totalCount = countItems(getFilesUri(), selection);
+        List<MediaAsset> assets = new ArrayList<>();
+        String[] projection = new String[] {
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Files.FileColumns.MEDIA_TYPE,
+            MediaStore.Files.FileColumns.MIME_TYPE,
+            MediaStore.Files.FileColumns.DISPLAY_NAME,
+            MediaStore.Files.FileColumns.DATE_MODIFIED
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            projection = Arrays.copyOf(projection, projection.length + 1);
+            projection[projection.length - 1] = MediaStore.MediaColumns.VOLUME_NAME;
+        }
+        try (Cursor cursor = resolver.query(getFilesUri(), projection, selection.selection, selection.args, sortOrder)) {
+            if (cursor != null) {
+                int volumeIndex = cursor.getColumnIndex(MediaStore.MediaColumns.VOLUME_NAME);
+                while (cursor.moveToNext() && assets.size() < library.limit) {
+                    long id = cursor.getLong(0);
+                    int mediaType = cursor.getInt(1);
+                    String volume = volumeIndex != -1 ? cursor.getString(volumeIndex) : null;
+                    Uri uri = contentUriFor(mediaType, id, volume);
+                    if (uri == null) {
+                        continue;
+                    }
+                    String type = mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO ? "video" : "image";
+                    String identifier = assetIdentifier(type, id, volume);
+                    assets.add(new MediaAsset(identifier, uri, mediaType, cursor.getString(2), cursor.getString(3), cursor.getLong(4)));
+                }
+            }
+        }
+
+        int rows = Math.max(1, (assets.size() + options.columns - 1) / options.columns);
+        int columns = Math.max(1, Math.min(options.columns, assets.size()));
+        // The atlas plus the one source thumbnail drawn into it at a time.
+        long atlasBytes = DecodeBudget.bitmapBytes(columns * options.tileWidth, rows * options.tileHeight, 1)
+            + DecodeBudget.bitmapBytes(options.tileWidth, options.tileHeight, 1);
+        JSArray tiles = new JSArray();
+        try (DecodeBudget.Reservation ignored = decodeBudget.reserve(atlasBytes)) {
+            Bitmap atlas = Bitmap.createBitmap(columns * options.tileWidth, rows * options.tileHeight, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(atlas);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            try {
+                for (int i = 0; i < assets.size(); i++) {
+                    MediaAsset asset = assets.get(i);
+                    Bitmap thumbnail = loadSourceThumbnail(asset, options.tileWidth, options.tileHeight);
+                    if (thumbnail == null) {
+                        continue;
+                    }
+                    int x = (i % options.columns) * options.tileWidth;
+                    int y = (i / options.columns) * options.tileHeight;
+                    Rect destination = new Rect(x, y, x + options.tileWidth, y + options.tileHeight);
+                    canvas.drawBitmap(thumbnail, centerCrop(thumbnail, options.tileWidth, options.tileHeight), destination, paint);
+                    thumbnail.recycle();
+
+                    JSObject tile = new JSObject();
+                    tile.put("id", asset.identifier);
+                    tile.put("x", x);
+                    tile.put("y", y);
+                    tile.put("width", options.tileWidth);
+                    tile.put("height", options.tileHeight);
+                    tiles.put(tile);
+                }
+
+                writeAtomically(image, (out) -> atlas.compress(BitmapUtils.compressFormat(options.format), qualityPercent, out));
+            } finally {
+                atlas.recycle();
+            }
+        }
+
+        JSObject result = new JSObject();
+        result.put("columns", columns);
+        result.put("rows", rows);
+        result.put("tileWidth", options.tileWidth);
+        result.put("tileHeight", options.tileHeight);
+        result.put("tiles", tiles);
+        result.put("totalCount", totalCount);
+        result.put("hasMore", library.offset + assets.size() < totalCount);
+        byte[] mapBytes = result.toString().getBytes(StandardCharsets.UTF_8);
+        writeAtomically(map, (out) -> {
+            out.write(mapBytes);
+            return true;
+        });
+
+        // Older generations of this page are never served again.
+        File[] siblings = atlasDirectory.listFiles();
+        if (siblings != null) {
+            for (File sibling : siblings) {
+                if (sibling.getName().startsWith(pageKey + "_") && !sibling.getName().startsWith(baseName)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    sibling.delete();
+                }
+            }
+        }
+
+        result.put("file", createFileObject(image, mimeType));
+        return result;
+    }
+
+    private static Rect centerCrop(Bitmap bitmap, int tileWidth, int tileHeight) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if ((long) width * tileHeight > (long) height * tileWidth) {
+            int cropWidth = (int) ((long) height * tileWidth / tileHeight);
+            int left = (width - cropWidth) / 2;
+            return new Rect(left, 0, left + cropWidth, height);
+        }
+        int cropHeight = (int) ((long) width * tileHeight / tileWidth);
+        int top = (height - cropHeight) / 2;
+        return new Rect(0, top, width, top + cropHeight);
+    }
+
+    private interface StreamWriter {
+        boolean write(OutputStream out) throws IOException;
+    }
+
+    private static void writeAtomically(File target, StreamWriter writer) throws IOException {
+        File partial = new File(target.getParentFile(), target.getName() + ".part");
+        try {
+            try (FileOutputStream out = new FileOutputStream(partial)) {
+                if (!writer.write(out)) {
+                    throw new IOException("Unable to write " + target.getName());
+                }
+            }
+            if (!partial.renameTo(target)) {
+                throw new IOException("Unable to move " + target.getName() + " into the cache");
+            }
+        } finally {
+            if (partial.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+            }
+        }
+    }
+
+    private static String readText(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Recomputed only after MediaStore reports a change, since computing it counts the whole library. */
+    private String libraryGeneration() {
+        String token = libraryToken;
+        if (token != null && !libraryChanged) {
+            return token;
+        }
+        // Cleared first so a change reported while counting is not lost.
+        libraryChanged = false;
+        token = queryLibraryGeneration();
+        libraryToken = token;
+        return token;
+    }
+
+    private String queryLibraryGeneration() {
+        String mediaSelection =
+            MediaStore.Files.FileColumns.MEDIA_TYPE +
+            " IN (" +
+            MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE +
+            "," +
+            MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO +
+            ")";
+        int count = countItems(getFilesUri(), new Selection(mediaSelection, new String[0]));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            try {
+                // The generation does not move on deletes, hence the count.
+                StringBuilder token = new StringBuilder();
+                for (String volume : externalVolumes()) {
+                    token.append(volume).append('=');
+                    token.append(MediaStore.getVersion(context, volume)).append(':').append(MediaStore.getGeneration(context, volume));
+                    token.append(';');
+                }
+                return token.append(count).toString();
+            } catch (RuntimeException ex) {
+                Logger.debug("PhotoLibrary", "MediaStore generation unavailable: " + ex.getMessage());
+            }
+        }
+
+        long maxId = 0;
+        long maxModified = 0;
+        String[] projection = new String[] { MediaStore.Files.FileColumns._ID, MediaStore.Files.FileColumns.DATE_MODIFIED };
+        String byId = MediaStore.Files.FileColumns._ID + " DESC LIMIT 1";
+        try (Cursor cursor = resolver.query(getFilesUri(), projection, mediaSelection, null, byId)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                maxId = cursor.getLong(0);
+            }
+        }
+        String byModified = MediaStore.Files.FileColumns.DATE_MODIFIED + " DESC LIMIT 1";
+        try (Cursor cursor = resolver.query(getFilesUri(), projection, mediaSelection, null, byModified)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                maxModified = cursor.getLong(1);
+            }
+        }
+        return count + ":" + maxId + ":" + maxModified;
+    }
+
+    /** Buckets follow getLibrary sorted by the date field, so a bucket's offset can be passed straight to it. */
+    JSObject getTimelineBuckets(TimelineOptions options) {
+        GetLibraryOptions library = options.library;
+        Selection selection = buildSelection(library);
+        String orderBy = options.dateField.orderBy();
+        String direction = library.sortAscending ? " ASC" : " DESC";
+        ZoneId zone = ZoneId.systemDefault();
+        String key = hashed(
+            String.format(
+                Locale.US,
+                "%s|%s|%s%s|%s|%s",
+                selection.selection,
+                Arrays.toString(selection.args),
+                orderBy,
+                direction,
+                options.granularity,
+                zone.getId()
+            )
+        );
+        String generation = libraryGeneration();
+        TimelineEntry cached = timelineCache.get(key);
+        if (cached != null && cached.generation.equals(generation)) {
+            return cached.result;
+        }
+
+        // Creation dates are in milliseconds, DATE_ADDED in seconds.
+        boolean millis = options.dateField == GetLibraryOptions.SortKey.CREATION_DATE;
+        JSArray buckets = new JSArray();
+        int total = 0;
+        int bucketCount = 0;
+        int bucketOffset = 0;
+        String bucketDate = null;
+        boolean inBucket = false;
+        // The calendar is only consulted when a row leaves [bucketStart, bucketEnd).
+        long bucketStart = 0;
+        long bucketEnd = 0;
+
+        GetLibraryOptions.SortKey dateField = options.dateField;
+        String[] projection = dateField.fallbackColumn != null
+            ? new String[] { dateField.column, dateField.fallbackColumn }
+            : new String[] { dateField.column };
+        try (Cursor cursor = resolver.query(getFilesUri(), projection, selection.selection, selection.args, orderBy + direction)) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    Long sortValue = VolumeCursors.sortValue(cursor, dateField);
+                    long value = sortValue != null ? sortValue : 0;
+                    long epochMillis = millis ? value : value * 1000;
+                    // Undated rows sort together at one end, as they do in getLibrary.
+                    boolean sameBucket;
+                    if (value <= 0) {
+                        sameBucket = inBucket && bucketDate == null;
+                    } else {
+                        sameBucket = inBucket && bucketDate != null && epochMillis >= bucketStart && epochMillis < bucketEnd;
+                    }
+                    if (!sameBucket) {
+                        if (inBucket) {
+                            buckets.put(timelineBucket(bucketDate, bucketCount, bucketOffset));
+                        }
+                        inBucket = true;
+                        bucketOffset = total;
+                        bucketCount = 0;
+                        if (value <= 0) {
+                            bucketDate = null;
+                        } else {
+                            LocalDate day = Instant.ofEpochMilli(epochMillis).atZone(zone).toLocalDate();
+                            LocalDate first = options.granularity == TimelineOptions.Granularity.MONTH ? day.withDayOfMonth(1) : day;
+                            LocalDate next = options.granularity == TimelineOptions.Granularity.MONTH
+                                ? first.plusMonths(1)
+                                : first.plusDays(1);
+                            bucketStart = first.atStartOfDay(zone).toInstant().toEpochMilli();
+                            bucketEnd = next.atStartOfDay(zone).toInstant().toEpochMilli();
+                            String date = first.toString();
+                            bucketDate = options.granularity == TimelineOptions.Granularity.MONTH ? date.substring(0, 7) : date;
+                        }
+                    }
+                    bucketCount++;
+                    total++;
+                }
+            }
+        }
+        if (inBucket) {
+            buckets.put(timelineBucket(bucketDate, bucketCount, bucketOffset));
+        }
+
+        JSObject result = new JSObject();
+        result.put("buckets", buckets);
+        result.put("totalCount", total);
+        if (timelineCache.size() >= MAX_TIMELINE_ENTRIES) {
+            timelineCache.clear();
+        }
+        timelineCache.put(key, new TimelineEntry(generation, result));
+        return result;
+    }
+
+    private static JSObject timelineBucket(@Nullable String date, int count, int offset) {
+        JSObject bucket = new JSObject();
+        if (date != null) {
+            bucket.put("date", date);
+        }
+        bucket.put("count", count);
+        bucket.put("offset", offset);
+        return bucket;
+    }
+
+    @Nullable
+    JSObject getThumbnailFile(String assetId, int width, int height, double quality, int maxBytes) throws IOException {
+        PickedItem picked = pickedItems.get(assetId);
+        if (picked != null) {
+            return ensurePickedThumbnail(assetId, picked, width, height, quality, maxBytes);
+        }
+
+        MediaAsset asset = findAsset(assetId);
+        if (asset == null) {
+            return null;
+        }
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        String name = ensureThumbnail(asset, width, height, quality, maxBytes);
+        return name != null ? thumbnailObject(name) : null;
+    }
+
+    @Nullable
+    JSArray getThumbnailFiles(ThumbnailSetOptions options) throws IOException {
+        JSArray result = new JSArray();
+        PickedItem picked = pickedItems.get(options.id);
+        if (picked != null) {
+            for (int[] size : options.sizes) {
+                JSObject file = ensurePickedThumbnail(options.id, picked, size[0], size[1], options.quality, options.maxBytes);
+                if (file != null) {
+                    file.put("width", size[0]);
+                    file.put("height", size[1]);
+                    result.put(file);
+                }
+            }
+            return result;
+        }
+
+        MediaAsset asset = findAsset(options.id);
+        if (asset == null) {
+            return null;
+        }
+        String[] names = ensureThumbnails(asset, options.sizes, options.quality, options.maxBytes);
+        for (int i = 0; i < names.length; i++) {
+            JSObject file = names[i] != null ? thumbnailObject(names[i]) : null;
+            if (file == null) {
+                continue;
+            }
+            file.put("width", options.sizes[i][0]);
+            file.put("height", options.sizes[i][1]);
+            result.put(file);
+        }
+        return result;
+    }
+
+    @Nullable
+    JSArray getVideoFrames(VideoFrameOptions options) throws IOException {
+        VideoFrameExtractor.Source source;
+        PickedItem picked = pickedItems.get(options.id);
+        if (picked != null) {
+            if (!"video".equals(picked.type)) {
+                throw new IllegalArgumentException("Asset is not a video");
+            }
+            source = picked.file.exists() || picked.source == null
+                ? VideoFrameExtractor.Source.of(picked.file)
+                : VideoFrameExtractor.Source.of(picked.source);
+        } else {
+            MediaAsset asset = findAsset(options.id);
+            if (asset == null) {
+                return null;
+            }
+            if (asset.mediaType != MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO) {
+                throw new IllegalArgumentException("Asset is not a video");
+            }
+            source = VideoFrameExtractor.Source.of(asset.uri);
+        }
+
+        long[] timesUs = new long[options.count];
+        if (options.count == 1) {
+            timesUs[0] = Math.round(options.time * 1_000_000L);
+        } else {
+            long durationUs = frameExtractor.durationUs(options.id, source);
+            for (int i = 0; i < options.count; i++) {
+                // Segment midpoints, so the strip never lands on the final black frame.
+                timesUs[i] = durationUs * (2L * i + 1) / (2L * options.count);
+            }
+        }
+
+        // A single poster is the frame at the requested time; strip frames snap to keyframes.
+        boolean exact = options.count == 1;
+        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(options.quality * 100)));
+        File[] targets = new File[options.count];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < options.count; i++) {
+            String name = String.format(
+                Locale.US,
+                "%s_frame%d%s_%dx%d_q%d.jpg",
+                hashed(options.id),
+                timesUs[i] / 1000,
+                exact ? "e" : "",
+                options.width,
+                options.height,
+                qualityPercent
+            );
+            targets[i] = new File(thumbnailDirectory, name);
+            if (!targets[i].exists()) {
+                missing.add(i);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long[] missingTimes = new long[missing.size()];
+            for (int i = 0; i < missing.size(); i++) {
+                missingTimes[i] = timesUs[missing.get(i)];
+            }
+            // Every extracted frame is held until the strip has been written, plus one unscaled frame before O_MR1.
+            long bytes = missingTimes.length * DecodeBudget.bitmapBytes(options.width, options.height, 1)
+                + frameExtractor.unscaledFrameBytes(options.id, source);
+            try (DecodeBudget.Reservation ignored = decodeBudget.reserve(bytes)) {
+                List<Bitmap> frames = frameExtractor.extractFrames(
+                    options.id,
+                    source,
+                    missingTimes,
+                    options.width,
+                    options.height,
+                    exact
+                );
+                for (int i = 0; i < frames.size(); i++) {
+                    Bitmap frame = frames.get(i);
+                    if (frame == null) {
+                        continue;
+                    }
+                    try {
+                        writeAtomically(targets[missing.get(i)], (out) -> frame.compress(Bitmap.CompressFormat.JPEG, qualityPercent, out));
+                    } catch (IOException ex) {
+                        Logger.error("PhotoLibrary", "Failed to write video frame", ex);
+                    } finally {
+                        frame.recycle();
+                    }
+                }
+            }
+        }
+
+        JSArray result = new JSArray();
+        for (int i = 0; i < options.count; i++) {
+            if (!targets[i].exists()) {
+                continue;
+            }
+            JSObject frame = createFileObject(targets[i], "image/jpeg");
+            frame.put("time", timesUs[i] / 1_000_000.0);
+            result.put(frame);
+        }
+        return result;
+    }
+
+    JSObject scanLocations() throws InterruptedException {
+        locationIndex.load();
+
+        long[][] snapshot = snapshotImages();
+        long[] ids = snapshot[0];
+        long[] modified = snapshot[1];
+        List<Integer> stale = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (!locationIndex.isCurrent(ids[i], modified[i])) {
+                stale.add(i);
+            }
+        }
+
+        boolean canReadOriginal =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q &&
+            ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_MEDIA_LOCATION) == PackageManager.PERMISSION_GRANTED;
+        Map<Long, double[]> extracted = new ConcurrentHashMap<>();
+        List<Runnable> tasks = new ArrayList<>(stale.size());
+        for (Integer index : stale) {
+            long id = ids[index];
+            tasks.add(() -> extracted.put(id, readLocation(id, canReadOriginal)));
+        }
+        runScan(tasks, SCAN_TASK_TIMEOUT_MS);
+        for (Integer index : stale) {
+            if (!extracted.containsKey(ids[index])) {
+                // Timed out: recorded as outdated so the next scan retries it.
+                modified[index] = -1;
+            }
+        }
+
+        locationIndex.update(ids, modified, extracted);
+        if (!stale.isEmpty() || ids.length == 0) {
+            locationIndex.save();
+        }
+
+        JSObject result = new JSObject();
+        result.put("scanned", ids.length);
+        result.put("updated", stale.size());
+        result.put("withLocation", locationIndex.countWithLocation());
+        return result;
+    }
+
+    /** Cancels tasks not done within {@code timeoutMs} of being waited on, so a stuck read cannot hang the call. */
+    private void runScan(List<Runnable> tasks, long timeoutMs) throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (Runnable task : tasks) {
+                futures.add(scanExecutor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get(timeoutMs, TimeUnit.MILLISECONDS);
+                } catch (ExecutionException ex) {
+                    Logger.error("PhotoLibrary", "Scan task failed", ex.getCause() != null ? ex.getCause() : ex);
+                } catch (TimeoutException ex) {
+                    Logger.debug("PhotoLibrary", "Scan task timed out");
+                    future.cancel(true);
+                }
+            }
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    JSObject getLocationClusters(LocationClusterOptions options) {
+        locationIndex.load();
+        JSObject result = new JSObject();
+        result.put("clusters", locationIndex.clusters(options.north, options.south, options.east, options.west, options.zoom));
+        return result;
+    }
+
+    JSObject findDuplicates(DuplicateOptions options) throws InterruptedException {
+        hashIndex.load();
+
+        long[][] snapshot = snapshotImages();
+        long[] ids = snapshot[0];
+        long[] modified = snapshot[1];
+        List<Integer> stale = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (!hashIndex.isCurrent(ids[i], modified[i])) {
+                stale.add(i);
+            }
+        }
+
+        Map<Long, Long> computed = new ConcurrentHashMap<>();
+        Set<Long> finished = ConcurrentHashMap.newKeySet();
+        List<Runnable> tasks = new ArrayList<>(stale.size());
+        for (Integer index : stale) {
+            long id = ids[index];
+            MediaAsset asset = new MediaAsset(
+                "image:" + id,
+                ContentUris.withAppendedId(getImagesUri(), id),
+                MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE,
+                null,
+                null,
+                modified[index]
+            );
+            tasks.add(() -> {
+                long bytes = DecodeBudget.bitmapBytes(HASH_THUMBNAIL_SIZE, HASH_THUMBNAIL_SIZE, 1);
+                try (DecodeBudget.Reservation ignored = decodeBudget.reserve(bytes)) {
+                    Bitmap bitmap = loadSourceThumbnail(asset, HASH_THUMBNAIL_SIZE, HASH_THUMBNAIL_SIZE);
+                    if (bitmap != null) {
+                        computed.put(id, BitmapUtils.differenceHash(bitmap));
+                        bitmap.recycle();
+                    }
+                    finished.add(id);
+                } catch (InterruptedIOException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    Logger.debug("PhotoLibrary", "Unable to hash image: " + ex.getMessage());
+                }
+            });
+        }
+        runScan(tasks, SCAN_TASK_TIMEOUT_MS);
+        for (Integer index : stale) {
+            if (!finished.contains(ids[index])) {
+                // Failed or timed out: recorded as outdated so the next scan retries it.
+                modified[index] = -1;
+            }
+        }
+
+        hashIndex.update(ids, modified, computed);
+        if (!stale.isEmpty() || ids.length == 0) {
+            hashIndex.save();
+        }
+
+        Map<Long, String> volumes = secondaryVolumeImages();
+        JSArray groups = new JSArray();
+        for (long[] group : hashIndex.groups(options.maxDistance)) {
+            JSArray members = new JSArray();
+            for (long id : group) {
+                members.put(assetIdentifier("image", id, volumes.get(id)));
+            }
+            groups.put(members);
+        }
+
+        JSObject result = new JSObject();
+        result.put("groups", groups);
+        result.put("scanned", ids.length);
+        result.put("updated", stale.size());
+        return result;
+    }
+
+    boolean enqueueUpload(UploadOptions options) {
+        UploadQueue.Source source = null;
+        if (options.id.startsWith("picked:")) {
+            PickedItem picked = pickedItems.get(options.id);
+            if (picked != null) {
+                Uri uri = picked.file.exists() ? Uri.fromFile(picked.file) : picked.source;
+                if (uri != null) {
+                    source = new UploadQueue.Source(uri, picked.fileName, picked.mimeType);
+                }
+            }
+        } else {
+            MediaAsset asset = findAsset(options.id);
+            if (asset != null) {
+                String fileName = asset.displayName != null ? asset.displayName : hashed(asset.identifier) + guessExtension(asset.mimeType);
+                String mimeType = asset.mimeType != null ? asset.mimeType : "application/octet-stream";
+                source = new UploadQueue.Source(asset.uri, fileName, mimeType);
+            }
+        }
+        if (source == null) {
+            return false;
+        }
+        uploadQueue.enqueue(options, source);
+        return true;
+    }
+
+    JSObject getAssetDigest(DigestOptions options) throws InterruptedException {
+        digestCache.load();
+        Map<Long, long[]> stats = queryLibraryStats(options.ids);
+
+        int count = options.ids.size();
+        byte[][] results = new byte[count][];
+        String[] messages = new String[count];
+        List<Runnable> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Callable<byte[]> task = digestTask(options.ids.get(i), stats);
+            if (task == null) {
+                messages[i] = ASSET_NOT_FOUND;
+                continue;
+            }
+            int index = i;
+            messages[index] = "Timed out while hashing the asset";
+            tasks.add(() -> {
+                try {
+                    results[index] = task.call();
+                } catch (Exception ex) {
+                    Logger.error("PhotoLibrary", "Failed to hash asset", ex);
+                    messages[index] = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+                }
+            });
+        }
+        runScan(tasks, DIGEST_TASK_TIMEOUT_MS);
+
+        JSArray digests = new JSArray();
+        JSArray errors = new JSArray();
+        for (int i = 0; i < count; i++) {
+            String id = options.ids.get(i);
+            if (results[i] != null) {
+                JSObject digest = new JSObject();
+                digest.put("id", id);
+                digest.put("sha256", toHex(results[i]));
+                digests.put(digest);
+                continue;
+            }
+            JSObject error = new JSObject();
+            error.put("id", id);
+            error.put("message", messages[i]);
+            errors.put(error);
+        }
+        digestCache.save();
+
+        JSObject result = new JSObject();
+        result.put("digests", digests);
+        if (errors.length() > 0) {
+            result.put("errors", errors);
+        }
+        return result;
+    }
+
+    @Nullable
+    private Callable<byte[]> digestTask(String id, Map<Long, long[]> stats) {
+        if (id.startsWith("picked:")) {
+            PickedItem picked = pickedItems.get(id);
+            if (picked == null) {
+                return null;
+            }
+            // Picked ids already derive from the source size and last-modified time.
+            byte[] cached = digestCache.get(id, picked.size, 0);
+            if (cached != null) {
+                return () -> cached;
+            }
+            return () -> {
+                byte[] digest;
+                if (picked.file.exists()) {
+                    try (FileInputStream in = new FileInputStream(picked.file)) {
+                        digest = sha256(in);
+                    }
+                } else if (picked.source != null) {
+                    digest = sha256(picked.source);
+                } else {
+                    throw new IOException(ASSET_NOT_FOUND);
+                }
+                digestCache.put(id, picked.size, 0, digest);
+                return digest;
+            };
+        }
+
+        ParsedIdentifier parsed = ParsedIdentifier.parse(id);
+        long[] stat = parsed != null ? stats.get(parsed.id) : null;
+        Uri uri = parsed != null ? contentUriFor(parsed.mediaType, parsed.id) : null;
+        if (stat == null || uri == null) {
+            return null;
+        }
+        byte[] cached = digestCache.get(id, stat[0], stat[1]);
+        if (cached != null) {
+            return () -> cached;
+        }
+        return () -> {
+            byte[] digest = sha256(uri);
+            digestCache.put(id, stat[0], stat[1], digest);
+            return digest;
+        };
+    }
+
+    private Map<Long, long[]> queryLibraryStats(List<String> ids) {
+        List<String> numericIds = new ArrayList<>();
+        for (String id : ids) {
+            ParsedIdentifier parsed = ParsedIdentifier.parse(id);
+            if (parsed != null) {
+                numericIds.add(String.valueOf(parsed.id));
+            }
+        }
+
+        Map<Long, long[]> stats = new HashMap<>();
+        String[] projection = new String[] {
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Files.FileColumns.SIZE,
+            MediaStore.Files.FileColumns.DATE_MODIFIED
+        };
+        for (int start = 0; start < numericIds.size(); start += ID_QUERY_BATCH) {
+            List<String> batch = numericIds.subList(start, Math.min(numericIds.size(), start + ID_QUERY_BATCH));
+            StringBuilder selection = new StringBuilder(MediaStore.Files.FileColumns._ID).append(" IN (");
+            for (int i = 0; i < batch.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(")");
+            String[] args = batch.toArray(new String[0]);
+            try (Cursor cursor = resolver.query(getFilesUri(), projection, selection.toString(), args, null)) {
+                if (cursor != null) {
+                    while (cursor.moveToNext()) {
+                        stats.put(cursor.getLong(0), new long[] { cursor.getLong(1), cursor.getLong(2) });
                     }
                 }
-                if (durationVal != null) {
-                    long durationMs = Long.parseLong(durationVal);
-                    durationSeconds = durationMs / 1000.0;
-                }
-            } catch (Exception ignored) {} finally {
-                retriever.release();
             }
         }
+        return stats;
+    }
 
-        String resolvedMime = mimeType != null ? mimeType : ("image".equals(type) ? "image/jpeg" : "application/octet-stream");
-        PickedItem picked = new PickedItem(file, resolvedMime, type);
-        pickedItems.put(identifier, picked);
-
-        JSObject asset = new JSObject();
-        try {
-            asset.put("id", identifier);
-            asset.put("fileName", displayName != null ? displayName : identifier + extension);
-            asset.put("type", type);
-            asset.put("width", width);
-            asset.put("height", height);
-            if (durationSeconds != null) {
-                asset.put("duration", durationSeconds);
-            }
-            asset.put("mimeType", resolvedMime);
-            asset.put("size", size);
-
-            JSObject fileObject = createFileObject(file, resolvedMime);
-            asset.put("file", fileObject);
-
-            JSObject thumbnail = ensurePickedThumbnail(
-                identifier,
-                picked,
-                options.thumbnailWidth,
-                options.thumbnailHeight,
-                options.thumbnailQuality
-            );
-            if (thumbnail != null) {
-                asset.put("thumbnail", thumbnail);
+    private byte[] sha256(Uri uri) throws IOException {
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r")) {
+            if (descriptor == null) {
+                throw new IOException("Unable to open asset");
             }
-        } catch (Exception e) {
-            Logger.error("PhotoLibrary", "Failed to build picked asset", e);
-            pickedItems.remove(identifier);
-            if (file.exists()) {
-                //noinspection ResultOfMethodCallIgnored
-                file.delete();
+            try (FileInputStream in = new FileInputStream(descriptor.getFileDescriptor())) {
+                return sha256(in);
             }
-            return null;
         }
-
-        return asset;
     }
 
-    @Nullable
-    JSObject getFullResolutionFile(String assetId) throws IOException {
-        PickedItem picked = pickedItems.get(assetId);
-        if (picked != null) {
-            return createFileObject(picked.file, picked.mimeType);
+    /** Memory-maps seekable files; pipes and descriptors that cannot be mapped are read buffered. */
+    private static byte[] sha256(FileInputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
         }
 
-        MediaAsset asset = findAsset(assetId);
-        if (asset == null) {
-            return null;
+        FileChannel channel = in.getChannel();
+        try {
+            long size = channel.size();
+            for (long position = 0; position < size; position += DIGEST_MAP_WINDOW) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(DIGEST_MAP_WINDOW, size - position)));
+            }
+            return digest.digest();
+        } catch (IOException | UnsupportedOperationException ex) {
+            Logger.debug("PhotoLibrary", "Unable to map asset, reading it instead: " + ex.getMessage());
+            digest.reset();
         }
 
-        File file = ensureFullFile(asset);
-        if (file == null) {
-            return null;
+        channel.position(0);
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
         }
-        long size = file.length();
-        JSObject result = new JSObject();
-        result.put("path", file.getAbsolutePath());
-        result.put("webPath", portablePath(file));
-        result.put("mimeType", asset.mimeType);
-        result.put("size", size);
-        return result;
+        return digest.digest();
     }
 
-    @Nullable
-    JSObject getThumbnailFile(String assetId, int width, int height, double quality) throws IOException {
-        PickedItem picked = pickedItems.get(assetId);
-        if (picked != null) {
-            return ensurePickedThumbnail(assetId, picked, width, height, quality);
+    private Map<Long, String> secondaryVolumeImages() {
+        Map<Long, String> volumes = new HashMap<>();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return volumes;
+        }
+        String[] projection = new String[] { MediaStore.Images.Media._ID, MediaStore.MediaColumns.VOLUME_NAME };
+        String selection = MediaStore.MediaColumns.VOLUME_NAME + "<>?";
+        String[] args = new String[] { MediaStore.VOLUME_EXTERNAL_PRIMARY };
+        try (Cursor cursor = resolver.query(getImagesUri(), projection, selection, args, null)) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    volumes.put(cursor.getLong(0), cursor.getString(1));
+                }
+            }
         }
+        return volumes;
+    }
 
-        MediaAsset asset = findAsset(assetId);
-        if (asset == null) {
-            return null;
+    private long[][] snapshotImages() {
+        List<long[]> rows = new ArrayList<>();
+        String[] projection = new String[] { MediaStore.Images.Media._ID, MediaStore.Images.Media.DATE_MODIFIED };
+        try (Cursor cursor = resolver.query(getImagesUri(), projection, null, null, MediaStore.Images.Media._ID + " ASC")) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    rows.add(new long[] { cursor.getLong(0), cursor.getLong(1) });
+                }
+            }
         }
-        if (width <= 0 || height <= 0) {
-            return null;
+
+        long[] ids = new long[rows.size()];
+        long[] modified = new long[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            ids[i] = rows.get(i)[0];
+            modified[i] = rows.get(i)[1];
         }
+        return new long[][] { ids, modified };
+    }
 
-        File file = ensureThumbnail(asset, width, height, quality);
-        if (file == null) {
-            return null;
+    private double[] readLocation(long id, boolean canReadOriginal) {
+        Uri uri = ContentUris.withAppendedId(getImagesUri(), id);
+        if (canReadOriginal) {
+            // Without the original the provider redacts GPS tags from the stream.
+            uri = MediaStore.setRequireOriginal(uri);
+        }
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in != null) {
+                float[] latLong = new float[2];
+                if (new ExifInterface(in).getLatLong(latLong)) {
+                    return new double[] { latLong[0], latLong[1] };
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.debug("PhotoLibrary", "Unable to read location: " + ex.getMessage());
         }
-        long size = file.length();
-        JSObject result = new JSObject();
-        result.put("path", file.getAbsolutePath());
-        result.put("webPath", portablePath(file));
-        result.put("mimeType", "image/jpeg");
-        result.put("size", size);
-        return result;
+        return new double[] { Double.NaN, Double.NaN };
     }
 
     private void queryAlbums(Uri uri, Map<String, AlbumAccumulator> accumulator) {
@@ -379,9 +1978,69 @@ final class PhotoLibraryService {
             args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
         }
 
+        if (!options.albumIds.isEmpty()) {
+            appendIn(selection, args, MediaStore.Images.Media.BUCKET_ID, options.albumIds);
+        }
+        if (!options.mimeTypes.isEmpty()) {
+            appendIn(selection, args, MediaStore.Files.FileColumns.MIME_TYPE, options.mimeTypes);
+        }
+
+        // Mirrors buildAsset: DATE_TAKEN (ms) when present, DATE_ADDED (s) otherwise.
+        if (options.fromDate != null) {
+            appendCreationDate(selection, args, ">=", options.fromDate);
+        }
+        if (options.toDate != null) {
+            appendCreationDate(selection, args, "<=", options.toDate);
+        }
+
+        appendBound(selection, args, MediaStore.Files.FileColumns.SIZE, ">=", options.minSize);
+        appendBound(selection, args, MediaStore.Files.FileColumns.SIZE, "<=", options.maxSize);
+        appendBound(selection, args, MediaStore.Images.Media.WIDTH, ">=", options.minWidth);
+        appendBound(selection, args, MediaStore.Images.Media.WIDTH, "<=", options.maxWidth);
+        appendBound(selection, args, MediaStore.Images.Media.HEIGHT, ">=", options.minHeight);
+        appendBound(selection, args, MediaStore.Images.Media.HEIGHT, "<=", options.maxHeight);
+
         return new Selection(selection.toString(), args.toArray(new String[0]));
     }
 
+    private void appendIn(StringBuilder selection, List<String> args, String column, List<String> values) {
+        selection.append(" AND ").append(column).append(" IN (");
+        for (int i = 0; i < values.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            args.add(values.get(i));
+        }
+        selection.append(")");
+    }
+
+    private void appendCreationDate(StringBuilder selection, List<String> args, String operator, long epochMillis) {
+        String dateTaken = MediaStore.Images.Media.DATE_TAKEN;
+        long epochSeconds = ">=".equals(operator) ? Math.floorDiv(epochMillis + 999, 1000) : Math.floorDiv(epochMillis, 1000);
+        selection
+            .append(" AND ((")
+            .append(dateTaken)
+            .append(">0 AND ")
+            .append(dateTaken)
+            .append(operator)
+            .append("?) OR ((")
+            .append(dateTaken)
+            .append(" IS NULL OR ")
+            .append(dateTaken)
+            .append("<=0) AND ")
+            .append(MediaStore.Files.FileColumns.DATE_ADDED)
+            .append(operator)
+            .append("?))");
+        args.add(String.valueOf(epochMillis));
+        args.add(String.valueOf(epochSeconds));
+    }
+
+    private void appendBound(StringBuilder selection, List<String> args, String column, String operator, @Nullable Number value) {
+        if (value == null) {
+            return;
+        }
+        selection.append(" AND ").append(column).append(operator).append("?");
+        args.add(String.valueOf(value));
+    }
+
     private int countItems(Uri uri, Selection selection) {
         int count = 0;
         try (
@@ -401,11 +2060,19 @@ final class PhotoLibraryService {
     }
 
     private String buildSortOrder(GetLibraryOptions options) {
-        StringBuilder builder = new StringBuilder(MediaStore.MediaColumns.DATE_ADDED + " DESC");
-        if (options.limit != null) {
-            builder.append(" LIMIT ").append(options.limit);
-            if (options.offset > 0) {
-                builder.append(" OFFSET ").append(options.offset);
+        return buildSortOrder(options, options.limit, options.offset);
+    }
+
+    private String buildSortOrder(GetLibraryOptions options, @Nullable Integer limit, int offset) {
+        String direction = options.sortAscending ? " ASC" : " DESC";
+        StringBuilder builder = new StringBuilder();
+        builder.append(options.sortBy.orderBy()).append(direction);
+        // _ID breaks ties so LIMIT/OFFSET pages never overlap or skip rows with equal sort values.
+        builder.append(", ").append(MediaStore.MediaColumns._ID).append(direction);
+        if (limit != null) {
+            builder.append(" LIMIT ").append(limit);
+            if (offset > 0) {
+                builder.append(" OFFSET ").append(offset);
             }
         }
         return builder.toString();
@@ -417,76 +2084,105 @@ final class PhotoLibraryService {
             return null;
         }
 
+        // Columns outside the field mask are absent from the projection; getString/getLong/getInt
+        // return null or 0 for them.
         long id = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID));
-        String mimeType = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE));
-        String displayName = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME));
-        long size = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.SIZE));
-
-        long dateTaken = getLong(cursor, MediaStore.Images.Media.DATE_TAKEN);
-        if (dateTaken <= 0) {
-            long dateAdded = getLong(cursor, MediaStore.Files.FileColumns.DATE_ADDED);
-            dateTaken = dateAdded > 0 ? dateAdded * 1000 : 0;
-        }
-        long dateModified = getLong(cursor, MediaStore.Files.FileColumns.DATE_MODIFIED);
-        if (dateModified > 0) {
-            dateModified = dateModified * 1000;
-        }
-
-        int width = getInt(cursor, MediaStore.Images.Media.WIDTH);
-        int height = getInt(cursor, MediaStore.Images.Media.HEIGHT);
-        long duration = mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO ? getLong(cursor, MediaStore.Video.Media.DURATION) : 0;
+        String mimeType = getString(cursor, MediaStore.Files.FileColumns.MIME_TYPE);
+        String displayName = getString(cursor, MediaStore.Files.FileColumns.DISPLAY_NAME);
+        long dateModifiedSeconds = getLong(cursor, MediaStore.Files.FileColumns.DATE_MODIFIED);
+        String volume = getString(cursor, MediaStore.MediaColumns.VOLUME_NAME);
 
-        String bucketId = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.BUCKET_ID));
-
-        Uri assetUri = contentUriFor(mediaType, id);
+        Uri assetUri = contentUriFor(mediaType, id, volume);
         if (assetUri == null) {
             return null;
         }
 
         String assetType = mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE ? "image" : "video";
-        String identifier = assetType + ":" + id;
+        String identifier = assetIdentifier(assetType, id, volume);
 
-        MediaAsset assetInfo = new MediaAsset(identifier, assetUri, mediaType, mimeType, displayName);
+        MediaAsset assetInfo = new MediaAsset(identifier, assetUri, mediaType, mimeType, displayName, dateModifiedSeconds);
 
         JSObject asset = new JSObject();
         asset.put("id", identifier);
-        asset.put("fileName", displayName != null ? displayName : (identifier + guessExtension(mimeType)));
-        asset.put("type", assetType);
-        asset.put("width", width);
-        asset.put("height", height);
-        asset.put("mimeType", mimeType != null ? mimeType : "application/octet-stream");
-        if (duration > 0) {
-            asset.put("duration", duration / 1000.0);
+        if (options.wants("fileName")) {
+            asset.put("fileName", displayName != null ? displayName : (identifier + guessExtension(mimeType)));
+        }
+        if (options.wants("type")) {
+            asset.put("type", assetType);
+        }
+        if (options.wants("width")) {
+            asset.put("width", getInt(cursor, MediaStore.Images.Media.WIDTH));
+        }
+        if (options.wants("height")) {
+            asset.put("height", getInt(cursor, MediaStore.Images.Media.HEIGHT));
+        }
+        if (options.wants("mimeType")) {
+            asset.put("mimeType", mimeType != null ? mimeType : "application/octet-stream");
+        }
+        if (options.wants("duration") && mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO) {
+            long duration = getLong(cursor, MediaStore.Video.Media.DURATION);
+            if (duration > 0) {
+                asset.put("duration", duration / 1000.0);
+            }
+        }
+        if (options.wants("creationDate")) {
+            long dateTaken = getLong(cursor, MediaStore.Images.Media.DATE_TAKEN);
+            if (dateTaken <= 0) {
+                long dateAdded = getLong(cursor, MediaStore.Files.FileColumns.DATE_ADDED);
+                dateTaken = dateAdded > 0 ? dateAdded * 1000 : 0;
+            }
+            if (dateTaken > 0) {
+                asset.put("creationDate", isoFormatter.format(Instant.ofEpochMilli(dateTaken)));
+            }
         }
-        if (dateTaken > 0) {
-            asset.put("creationDate", isoFormatter.format(Instant.ofEpochMilli(dateTaken)));
+        if (options.wants("modificationDate") && dateModifiedSeconds > 0) {
+            asset.put("modificationDate", isoFormatter.format(Instant.ofEpochMilli(dateModifiedSeconds * 1000)));
+        }
+        if (mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE && (options.wants("latitude") || options.wants("longitude"))) {
+            double[] location = locationIndex.lookup(id);
+            if (location != null) {
+                if (options.wants("latitude")) {
+                    asset.put("latitude", location[0]);
+                }
+                if (options.wants("longitude")) {
+                    asset.put("longitude", location[1]);
+                }
+            }
         }
-        if (dateModified > 0) {
-            asset.put("modificationDate", isoFormatter.format(Instant.ofEpochMilli(dateModified)));
+        if (wantsPlaceholder(options)) {
+            PlaceholderCache.Placeholder placeholder = placeholderFor(assetInfo, id);
+            if (placeholder != null) {
+                if (options.wants("blurHash")) {
+                    asset.put("blurHash", placeholder.blurHash);
+                }
+                if (options.wants("dominantColor")) {
+                    asset.put("dominantColor", String.format(Locale.US, "#%06x", placeholder.color & 0xffffff));
+                }
+            }
         }
-        if (bucketId != null && options.includeAlbumData) {
+        String bucketId = getString(cursor, MediaStore.Images.Media.BUCKET_ID);
+        if (bucketId != null && options.includeAlbumData && options.wants("albumIds")) {
             JSArray albums = new JSArray();
             albums.put(bucketId);
             asset.put("albumIds", albums);
         }
 
-        JSObject thumbnail = null;
-        if (options.thumbnailWidth > 0 && options.thumbnailHeight > 0) {
-            File thumb = ensureThumbnail(assetInfo, options.thumbnailWidth, options.thumbnailHeight, options.thumbnailQuality);
-            if (thumb != null) {
-                thumbnail = new JSObject();
-                thumbnail.put("path", thumb.getAbsolutePath());
-                thumbnail.put("webPath", portablePath(thumb));
-                thumbnail.put("mimeType", "image/jpeg");
-                thumbnail.put("size", thumb.length());
+        if (wantsThumbnail(options)) {
+            String thumb = ensureThumbnail(
+                assetInfo,
+                options.thumbnailWidth,
+                options.thumbnailHeight,
+                options.thumbnailQuality,
+                options.thumbnailMaxBytes
+            );
+            JSObject thumbnail = thumb != null ? thumbnailObject(thumb) : null;
+            if (thumbnail != null) {
+                asset.put("thumbnail", thumbnail);
             }
         }
-        if (thumbnail != null) {
-            asset.put("thumbnail", thumbnail);
-        }
 
-        if (options.includeFullResolutionData) {
-            File full = ensureFullFile(assetInfo);
+        if (wantsFile(options)) {
+            File full = ensureFullFile(assetInfo, null);
             if (full != null) {
                 JSObject file = new JSObject();
                 file.put("path", full.getAbsolutePath());
@@ -497,7 +2193,9 @@ final class PhotoLibraryService {
             }
         }
 
-        asset.put("size", size);
+        if (options.wants("size")) {
+            asset.put("size", getLong(cursor, MediaStore.Files.FileColumns.SIZE));
+        }
 
         return asset;
     }
@@ -509,12 +2207,16 @@ final class PhotoLibraryService {
             return null;
         }
 
-        Uri uri = contentUriFor(parsed.mediaType, parsed.id);
+        Uri uri = contentUriFor(parsed.mediaType, parsed.id, parsed.volume);
         if (uri == null) {
             return null;
         }
 
-        String[] projection = new String[] { MediaStore.Files.FileColumns.DISPLAY_NAME, MediaStore.Files.FileColumns.MIME_TYPE };
+        String[] projection = new String[] {
+            MediaStore.Files.FileColumns.DISPLAY_NAME,
+            MediaStore.Files.FileColumns.MIME_TYPE,
+            MediaStore.Files.FileColumns.DATE_MODIFIED
+        };
 
         String selection = MediaStore.Files.FileColumns._ID + "=?";
         String[] args = new String[] { String.valueOf(parsed.id) };
@@ -523,45 +2225,195 @@ final class PhotoLibraryService {
             if (cursor != null && cursor.moveToFirst()) {
                 String displayName = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME));
                 String mimeType = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE));
-                return new MediaAsset(identifier, uri, parsed.mediaType, mimeType, displayName);
+                long dateModified = getLong(cursor, MediaStore.Files.FileColumns.DATE_MODIFIED);
+                return new MediaAsset(identifier, uri, parsed.mediaType, mimeType, displayName, dateModified);
             }
         }
         return null;
     }
 
     @Nullable
-    private File ensureFullFile(MediaAsset asset) throws IOException {
+    private File ensureFullFile(MediaAsset asset, @Nullable String taskId) throws IOException {
         String extension = guessExtension(asset.mimeType);
         File target = new File(fileDirectory, hashed(asset.identifier) + extension);
-        if (target.exists()) {
-            return target;
+        return copyIntoCache(target, asset.uri, asset.identifier, taskId);
+    }
+
+    @Nullable
+    private String ensureThumbnail(MediaAsset asset, int width, int height, double quality, int maxBytes) throws IOException {
+        return ensureThumbnails(asset, new int[][] { { width, height } }, quality, maxBytes)[0];
+    }
+
+    /**
+     * Missing sizes are all scaled from one decode: the smallest cached rendition covering the
+     * largest missing size when there is one, the source thumbnail otherwise.
+     */
+    private String[] ensureThumbnails(MediaAsset asset, int[][] sizes, double quality, int maxBytes) throws IOException {
+        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(quality * 100)));
+        String assetHash = hashed(asset.identifier);
+        String[] targets = new String[sizes.length];
+        List<Integer> missing = new ArrayList<>();
+        int maxWidth = 0;
+        int maxHeight = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            targets[i] = String.format(Locale.US, "%s_%dx%d_q%d.jpg", assetHash, sizes[i][0], sizes[i][1], qualityPercent);
+            if (maxBytes > 0) {
+                ThumbnailRenditions.Rendition budgeted = thumbnailRenditions.budgeted(assetHash, sizes[i][0], sizes[i][1], maxBytes);
+                targets[i] = budgeted != null ? budgeted.name : null;
+            }
+            if (targets[i] == null || !thumbnailStore.contains(targets[i])) {
+                missing.add(i);
+                maxWidth = Math.max(maxWidth, sizes[i][0]);
+                maxHeight = Math.max(maxHeight, sizes[i][1]);
+            }
+        }
+        if (missing.isEmpty()) {
+            return targets;
         }
 
-        try (InputStream in = resolver.openInputStream(asset.uri)) {
-            if (in == null) {
-                return null;
+        ThumbnailRenditions.Rendition rendition = thumbnailRenditions.best(assetHash, maxWidth, maxHeight, qualityPercent);
+        int sampleSize = 1;
+        if (rendition != null) {
+            while (rendition.width / (sampleSize * 2) >= maxWidth && rendition.height / (sampleSize * 2) >= maxHeight) {
+                sampleSize *= 2;
+            }
+        }
+        long sourceBytes = DecodeBudget.bitmapBytes(maxWidth, maxHeight, 1);
+        long decodeBytes = rendition != null
+            ? Math.max(sourceBytes, DecodeBudget.bitmapBytes(rendition.width, rendition.height, sampleSize))
+            : sourceBytes;
+
+        // The decoded bitmap and its largest scaled copy are alive together.
+        try (DecodeBudget.Reservation ignored = decodeBudget.reserve(decodeBytes + sourceBytes)) {
+            Bitmap bitmap = decodeThumbnailSource(asset, rendition, sampleSize, maxWidth, maxHeight);
+            if (bitmap == null) {
+                for (Integer index : missing) {
+                    targets[index] = null;
+                }
+                return targets;
             }
-            try (FileOutputStream out = new FileOutputStream(target)) {
-                byte[] buffer = new byte[8192];
-                int read;
-                while ((read = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, read);
+            try {
+                for (Integer index : missing) {
+                    int width = sizes[index][0];
+                    int height = sizes[index][1];
+                    Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+                    try {
+                        targets[index] = writeThumbnail(scaled, assetHash, width, height, qualityPercent, maxBytes);
+                    } finally {
+                        if (scaled != bitmap) {
+                            scaled.recycle();
+                        }
+                    }
                 }
+            } finally {
+                bitmap.recycle();
+            }
+        }
+        return targets;
+    }
+
+    @Nullable
+    private Bitmap decodeThumbnailSource(
+        MediaAsset asset,
+        @Nullable ThumbnailRenditions.Rendition rendition,
+        int sampleSize,
+        int width,
+        int height
+    ) {
+        if (rendition != null) {
+            BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+            decodeOptions.inSampleSize = sampleSize;
+            Bitmap bitmap = thumbnailStore.decode(rendition.name, decodeOptions);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        Bitmap bitmap = loadSourceThumbnail(asset, width, height);
+        if (bitmap != null && asset.mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE && asset.dateModified > 0) {
+            // The source bitmap is already in memory, so feed the duplicate index for free.
+            ParsedIdentifier parsed = ParsedIdentifier.parse(asset.identifier);
+            if (parsed != null) {
+                hashIndex.record(parsed.id, asset.dateModified, BitmapUtils.differenceHash(bitmap));
             }
         }
+        return bitmap;
+    }
 
-        return target;
+    // Budgeted thumbnails are named after the budget and the chosen quality, so the rendition index finds them.
+    private String writeThumbnail(Bitmap bitmap, String assetHash, int width, int height, int qualityPercent, int maxBytes)
+        throws IOException {
+        String name;
+        ByteArrayOutputStream encoded;
+        if (maxBytes <= 0) {
+            encoded = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, qualityPercent, encoded);
+            name = String.format(Locale.US, "%s_%dx%d_q%d.jpg", assetHash, width, height, qualityPercent);
+        } else {
+            encoded = new ByteArrayOutputStream(maxBytes);
+            int chosen = BitmapUtils.compressWithinBudget(bitmap, maxBytes, encoded);
+            name = String.format(Locale.US, "%s_%dx%d_b%d_q%d.jpg", assetHash, width, height, maxBytes, chosen);
+        }
+        thumbnailStore.put(name, encoded.toByteArray());
+        thumbnailRenditions.add(name);
+        return name;
     }
 
     @Nullable
-    private File ensureThumbnail(MediaAsset asset, int width, int height, double quality) throws IOException {
-        int qualityPercent = (int) Math.max(0, Math.min(100, Math.round(quality * 100)));
-        String name = String.format(Locale.US, "%s_%dx%d_q%d.jpg", hashed(asset.identifier), width, height, qualityPercent);
-        File target = new File(thumbnailDirectory, name);
-        if (target.exists()) {
-            return target;
+    private JSObject thumbnailObject(String name) {
+        ThumbnailStore.Location location = thumbnailStore.locate(name);
+        if (location == null) {
+            return null;
         }
+        JSObject result = new JSObject();
+        result.put("path", location.file.getAbsolutePath());
+        result.put("webPath", portablePath(location.file));
+        result.put("mimeType", "image/jpeg");
+        result.put("size", location.length);
+        if (location.packed) {
+            result.put("offset", location.offset);
+        }
+        return result;
+    }
+
+    @Nullable
+    private PlaceholderCache.Placeholder placeholderFor(MediaAsset asset, long id) {
+        PlaceholderCache.Placeholder cached = placeholderCache.get(id, asset.dateModified);
+        if (cached != null) {
+            return cached;
+        }
+
+        int[] pixels;
+        int width;
+        int height;
+        try (DecodeBudget.Reservation ignored = decodeBudget.reserve(2 * DecodeBudget.bitmapBytes(PLACEHOLDER_SIZE, PLACEHOLDER_SIZE, 1))) {
+            Bitmap bitmap = loadSourceThumbnail(asset, PLACEHOLDER_SIZE, PLACEHOLDER_SIZE);
+            if (bitmap == null) {
+                return null;
+            }
+            Bitmap small = BitmapUtils.orientAndFit(bitmap, ExifInterface.ORIENTATION_NORMAL, PLACEHOLDER_SIZE, PLACEHOLDER_SIZE);
+            width = small.getWidth();
+            height = small.getHeight();
+            pixels = new int[width * height];
+            small.getPixels(pixels, 0, width, 0, 0, width, height);
+            small.recycle();
+        } catch (InterruptedIOException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        // 4x3 components suit the landscape majority; portrait images swap them.
+        int componentsX = width >= height ? 4 : 3;
+        int componentsY = width >= height ? 3 : 4;
+        PlaceholderCache.Placeholder placeholder = new PlaceholderCache.Placeholder(
+            BlurHash.encode(pixels, width, height, componentsX, componentsY),
+            BitmapUtils.dominantColor(pixels)
+        );
+        placeholderCache.put(id, asset.dateModified, placeholder);
+        return placeholder;
+    }
 
+    @Nullable
+    private Bitmap loadSourceThumbnail(MediaAsset asset, int width, int height) {
         Bitmap bitmap = null;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             try {
@@ -583,22 +2435,27 @@ final class PhotoLibraryService {
             }
         }
 
-        if (bitmap == null) {
-            return null;
-        }
+        return bitmap;
+    }
 
-        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
-        if (bitmap != scaled) {
-            bitmap.recycle();
+    // "image:42" on the primary volume, so existing ids keep working; "image:<volume>:42" elsewhere.
+    private static String assetIdentifier(String type, long id, @Nullable String volume) {
+        if (volume == null || MediaStore.VOLUME_EXTERNAL_PRIMARY.equals(volume) || MediaStore.VOLUME_EXTERNAL.equals(volume)) {
+            return type + ":" + id;
         }
+        return type + ":" + volume + ":" + id;
+    }
 
-        try (FileOutputStream out = new FileOutputStream(target)) {
-            scaled.compress(Bitmap.CompressFormat.JPEG, qualityPercent, out);
-        } finally {
-            scaled.recycle();
+    private Uri contentUriFor(int mediaType, long id, @Nullable String volume) {
+        if (volume == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return contentUriFor(mediaType, id);
         }
-
-        return target;
+        if (mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
+            return ContentUris.withAppendedId(MediaStore.Images.Media.getContentUri(volume), id);
+        } else if (mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO) {
+            return ContentUris.withAppendedId(MediaStore.Video.Media.getContentUri(volume), id);
+        }
+        return null;
     }
 
     private Uri contentUriFor(int mediaType, long id) {
@@ -631,6 +2488,15 @@ final class PhotoLibraryService {
         return MediaStore.Files.getContentUri("external");
     }
 
+    @Nullable
+    private String getString(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        if (index == -1) {
+            return null;
+        }
+        return cursor.getString(index);
+    }
+
     private long getLong(Cursor cursor, String column) {
         int index = cursor.getColumnIndex(column);
         if (index == -1) {
@@ -660,64 +2526,141 @@ final class PhotoLibraryService {
         return result;
     }
 
-    private JSObject ensurePickedThumbnail(String identifier, PickedItem picked, int width, int height, double quality) throws IOException {
+    private JSObject ensurePickedThumbnail(String identifier, PickedItem picked, int width, int height, double quality, int maxBytes)
+        throws IOException {
         if (width <= 0 || height <= 0) {
             return null;
         }
 
-        File target = new File(
-            thumbnailDirectory,
-            String.format(Locale.US, "%s_%dx%d_q%.0f.jpg", hashed(identifier), width, height, quality * 100)
-        );
+        String assetHash = hashed(identifier);
+        int qualityPercent = (int) Math.round(Math.max(0, Math.min(1, quality)) * 100);
+        String target = String.format(Locale.US, "%s_%dx%d_q%d.jpg", assetHash, width, height, qualityPercent);
+        if (maxBytes > 0) {
+            ThumbnailRenditions.Rendition budgeted = thumbnailRenditions.budgeted(assetHash, width, height, maxBytes);
+            target = budgeted != null ? budgeted.name : null;
+        }
 
-        if (!target.exists()) {
+        if (target == null || !thumbnailStore.contains(target)) {
             if ("image".equals(picked.type)) {
-                Bitmap bitmap = BitmapFactory.decodeFile(picked.file.getAbsolutePath());
-                if (bitmap == null) {
+                Uri source = picked.file.exists() || picked.source == null ? Uri.fromFile(picked.file) : picked.source;
+                BitmapFactory.Options bounds = readBounds(source);
+                if (bounds == null) {
                     return null;
                 }
-                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
-                if (scaled != bitmap) {
-                    bitmap.recycle();
+                int sampleSize = 1;
+                while (bounds.outWidth / (sampleSize * 2) >= width && bounds.outHeight / (sampleSize * 2) >= height) {
+                    sampleSize *= 2;
                 }
-                try (FileOutputStream out = new FileOutputStream(target)) {
-                    scaled.compress(Bitmap.CompressFormat.JPEG, (int) Math.round(Math.max(0, Math.min(1, quality)) * 100), out);
+                long bytes = DecodeBudget.bitmapBytes(bounds.outWidth, bounds.outHeight, sampleSize)
+                    + DecodeBudget.bitmapBytes(width, height, 1);
+                try (DecodeBudget.Reservation ignored = decodeBudget.reserve(bytes)) {
+                    Bitmap bitmap = decodeSampled(source, sampleSize);
+                    if (bitmap == null) {
+                        return null;
+                    }
+                    Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+                    if (scaled != bitmap) {
+                        bitmap.recycle();
+                    }
+                    try {
+                        target = writeThumbnail(scaled, assetHash, width, height, qualityPercent, maxBytes);
+                    } finally {
+                        scaled.recycle();
+                    }
                 }
-                scaled.recycle();
             } else if ("video".equals(picked.type)) {
-                Bitmap bitmap;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                    bitmap = ThumbnailUtils.createVideoThumbnail(picked.file, new Size(width, height), null);
-                } else {
-                    bitmap = ThumbnailUtils.createVideoThumbnail(picked.file.getAbsolutePath(), MediaStore.Video.Thumbnails.MINI_KIND);
-                    if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
-                        Bitmap rescaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
-                        if (rescaled != bitmap) {
-                            bitmap.recycle();
-                        }
-                        bitmap = rescaled;
-                    }
+                // A frame near the requested size plus its rescaled copy, and an unscaled frame before O_MR1.
+                long bytes = 2 * DecodeBudget.bitmapBytes(width, height, 1);
+                if (!picked.file.exists() && picked.source != null) {
+                    bytes += frameExtractor.unscaledFrameBytes(identifier, VideoFrameExtractor.Source.of(picked.source));
                 }
-
-                if (bitmap == null) {
+                try (DecodeBudget.Reservation ignored = decodeBudget.reserve(bytes)) {
+                    target = writePickedVideoThumbnail(identifier, picked, assetHash, width, height, qualityPercent, maxBytes);
+                }
+                if (target == null) {
                     return null;
                 }
+            } else {
+                return null;
+            }
+        }
+
+        return thumbnailObject(target);
+    }
 
-                try (FileOutputStream out = new FileOutputStream(target)) {
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, (int) Math.round(Math.max(0, Math.min(1, quality)) * 100), out);
-                } finally {
+    @Nullable
+    private String writePickedVideoThumbnail(
+        String identifier,
+        PickedItem picked,
+        String assetHash,
+        int width,
+        int height,
+        int qualityPercent,
+        int maxBytes
+    ) throws IOException {
+        Bitmap bitmap;
+        if (!picked.file.exists() && picked.source != null) {
+            List<Bitmap> frames = frameExtractor.extractFrames(
+                identifier,
+                VideoFrameExtractor.Source.of(picked.source),
+                new long[] { 0 },
+                width,
+                height,
+                false
+            );
+            bitmap = frames.get(0);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            bitmap = ThumbnailUtils.createVideoThumbnail(picked.file, new Size(width, height), null);
+        } else {
+            bitmap = ThumbnailUtils.createVideoThumbnail(picked.file.getAbsolutePath(), MediaStore.Video.Thumbnails.MINI_KIND);
+            if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+                Bitmap rescaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+                if (rescaled != bitmap) {
                     bitmap.recycle();
                 }
-            } else {
+                bitmap = rescaled;
+            }
+        }
+
+        if (bitmap == null) {
+            return null;
+        }
+
+        try {
+            return writeThumbnail(bitmap, assetHash, width, height, qualityPercent, maxBytes);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    @Nullable
+    private BitmapFactory.Options readBounds(Uri source) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(source)) {
+            if (in == null) {
                 return null;
             }
+            BitmapFactory.decodeStream(in, null, bounds);
         }
+        return bounds.outWidth > 0 && bounds.outHeight > 0 ? bounds : null;
+    }
 
-        return createFileObject(target, "image/jpeg");
+    @Nullable
+    private Bitmap decodeSampled(Uri source, int sampleSize) throws IOException {
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(source, "r")) {
+            if (descriptor == null) {
+                return null;
+            }
+            BitmapFactory.Options decode = new BitmapFactory.Options();
+            decode.inSampleSize = sampleSize;
+            return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, decode);
+        }
     }
 
     private String portablePath(File file) {
-        String host = bridge.getLocalUrl();
+        Bridge current = bridge;
+        String host = current != null ? current.getLocalUrl() : null;
         if (host == null || host.isEmpty()) {
             return Uri.fromFile(file).toString();
         }
@@ -727,17 +2670,20 @@ final class PhotoLibraryService {
     private String hashed(String input) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encoded = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : encoded) {
-                sb.append(String.format(Locale.US, "%02x", b));
-            }
-            return sb.toString();
+            return toHex(digest.digest(input.getBytes(StandardCharsets.UTF_8)));
         } catch (NoSuchAlgorithmException e) {
             return String.valueOf(input.hashCode());
         }
     }
 
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format(Locale.US, "%02x", b));
+        }
+        return sb.toString();
+    }
+
     private String guessExtension(@Nullable String mimeType) {
         if (mimeType == null) {
             return ".dat";
@@ -757,16 +2703,29 @@ final class PhotoLibraryService {
         return "." + subtype;
     }
 
-    private static final class PickedItem {
+    private static final class MediaDimensions {
 
-        final File file;
-        final String mimeType;
-        final String type;
+        final int width;
+        final int height;
 
-        PickedItem(File file, String mimeType, String type) {
-            this.file = file;
-            this.mimeType = mimeType;
-            this.type = type;
+        @Nullable
+        final Double durationSeconds;
+
+        MediaDimensions(int width, int height, @Nullable Double durationSeconds) {
+            this.width = width;
+            this.height = height;
+            this.durationSeconds = durationSeconds;
+        }
+    }
+
+    private static final class TimelineEntry {
+
+        final String generation;
+        final JSObject result;
+
+        TimelineEntry(String generation, JSObject result) {
+            this.generation = generation;
+            this.result = result;
         }
     }
 
@@ -794,30 +2753,48 @@ final class PhotoLibraryService {
         }
     }
 
+    private static final class VolumeQuery {
+
+        @Nullable
+        final Cursor cursor;
+
+        final int count;
+
+        VolumeQuery(@Nullable Cursor cursor, int count) {
+            this.cursor = cursor;
+            this.count = count;
+        }
+    }
+
     private static final class ParsedIdentifier {
 
         final long id;
         final int mediaType;
 
-        private ParsedIdentifier(long id, int mediaType) {
+        @Nullable
+        final String volume;
+
+        private ParsedIdentifier(long id, int mediaType, @Nullable String volume) {
             this.id = id;
             this.mediaType = mediaType;
+            this.volume = volume;
         }
 
         static ParsedIdentifier parse(String identifier) {
             if (identifier == null) {
                 return null;
             }
+            // "image:42", or "image:<volume>:42" for assets outside the primary volume.
             String[] parts = identifier.split(":");
-            if (parts.length != 2) {
+            if (parts.length != 2 && parts.length != 3) {
                 return null;
             }
             try {
-                long id = Long.parseLong(parts[1]);
+                long id = Long.parseLong(parts[parts.length - 1]);
                 int mediaType = "video".equals(parts[0])
                     ? MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO
                     : MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE;
-                return new ParsedIdentifier(id, mediaType);
+                return new ParsedIdentifier(id, mediaType, parts.length == 3 ? parts[1] : null);
             } catch (NumberFormatException ex) {
                 return null;
             }
@@ -831,13 +2808,16 @@ final class PhotoLibraryService {
         final int mediaType;
         final String mimeType;
         final String displayName;
+        // Seconds, as stored by MediaStore.
+        final long dateModified;
 
-        MediaAsset(String identifier, Uri uri, int mediaType, String mimeType, String displayName) {
+        MediaAsset(String identifier, Uri uri, int mediaType, String mimeType, String displayName, long dateModified) {
             this.identifier = identifier;
             this.uri = uri;
             this.mediaType = mediaType;
             this.mimeType = mimeType;
             this.displayName = displayName;
+            this.dateModified = dateModified;
         }
     }
 }
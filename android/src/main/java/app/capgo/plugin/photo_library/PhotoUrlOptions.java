@@ -0,0 +1,52 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.PluginCall;
+
+final class PhotoUrlOptions {
+
+    final String id;
+    final String taskId;
+    final int maxWidth;
+    final int maxHeight;
+    final String format;
+    final double quality;
+
+    private PhotoUrlOptions(String id, String taskId, int maxWidth, int maxHeight, String format, double quality) {
+        this.id = id;
+        this.taskId = taskId;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    boolean wantsRendition() {
+        return maxWidth > 0 || maxHeight > 0;
+    }
+
+    static PhotoUrlOptions fromCall(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'id' is required");
+        }
+
+        String taskId = call.getString("taskId");
+
+        int maxWidth = call.getInt("maxWidth", 0);
+        int maxHeight = call.getInt("maxHeight", 0);
+        if (maxWidth < 0 || maxHeight < 0) {
+            throw new IllegalArgumentException("maxWidth and maxHeight must be greater than or equal to 0");
+        }
+
+        String format = call.getString("format", "jpeg");
+        if (!"jpeg".equals(format) && !"webp".equals(format) && !"png".equals(format)) {
+            throw new IllegalArgumentException("format must be one of 'jpeg', 'webp' or 'png'");
+        }
+
+        Double qualityOption = call.getDouble("quality");
+        double quality = qualityOption != null ? qualityOption : PhotoLibraryDefaults.RENDITION_QUALITY;
+        quality = Math.max(0.0, Math.min(1.0, quality));
+
+        return new PhotoUrlOptions(id, taskId, maxWidth, maxHeight, format, quality);
+    }
+}
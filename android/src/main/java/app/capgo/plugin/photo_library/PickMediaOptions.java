@@ -10,6 +10,8 @@ final class PickMediaOptions {
     final int thumbnailWidth;
     final int thumbnailHeight;
     final double thumbnailQuality;
+    final int thumbnailMaxBytes;
+    final boolean copyToCache;
 
     private PickMediaOptions(
         int selectionLimit,
@@ -17,7 +19,9 @@ final class PickMediaOptions {
         boolean includeVideos,
         int thumbnailWidth,
         int thumbnailHeight,
-        double thumbnailQuality
+        double thumbnailQuality,
+        int thumbnailMaxBytes,
+        boolean copyToCache
     ) {
         this.selectionLimit = selectionLimit;
         this.includeImages = includeImages;
@@ -25,6 +29,8 @@ final class PickMediaOptions {
         this.thumbnailWidth = thumbnailWidth;
         this.thumbnailHeight = thumbnailHeight;
         this.thumbnailQuality = thumbnailQuality;
+        this.thumbnailMaxBytes = thumbnailMaxBytes;
+        this.copyToCache = copyToCache;
     }
 
     static PickMediaOptions fromCall(PluginCall call) {
@@ -45,7 +51,19 @@ final class PickMediaOptions {
         Double qualityOption = call.getDouble("thumbnailQuality");
         double thumbnailQuality = qualityOption != null ? qualityOption : 0.7;
         thumbnailQuality = Math.max(0.0, Math.min(1.0, thumbnailQuality));
+        int thumbnailMaxBytes = GetLibraryOptions.maxBytesOption(call, "thumbnailMaxBytes");
 
-        return new PickMediaOptions(limit, includeImages, includeVideos, thumbnailWidth, thumbnailHeight, thumbnailQuality);
+        boolean copyToCache = call.getBoolean("copyToCache", true);
+
+        return new PickMediaOptions(
+            limit,
+            includeImages,
+            includeVideos,
+            thumbnailWidth,
+            thumbnailHeight,
+            thumbnailQuality,
+            thumbnailMaxBytes,
+            copyToCache
+        );
     }
 }
@@ -0,0 +1,102 @@
+package app.capgo.plugin.photo_library;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import org.json.JSONObject;
+
+final class PickedItem {
+
+    final String identifier;
+    final File file;
+    final String mimeType;
+    final String type;
+
+    @Nullable
+    final Uri source;
+
+    final String sourceKey;
+    final String fileName;
+    final long size;
+    final int width;
+    final int height;
+
+    @Nullable
+    final Double durationSeconds;
+
+    volatile long lastAccess;
+
+    PickedItem(
+        String identifier,
+        File file,
+        String mimeType,
+        String type,
+        @Nullable Uri source,
+        String sourceKey,
+        String fileName,
+        long size,
+        int width,
+        int height,
+        @Nullable Double durationSeconds,
+        long lastAccess
+    ) {
+        this.identifier = identifier;
+        this.file = file;
+        this.mimeType = mimeType;
+        this.type = type;
+        this.source = source;
+        this.sourceKey = sourceKey;
+        this.fileName = fileName;
+        this.size = size;
+        this.width = width;
+        this.height = height;
+        this.durationSeconds = durationSeconds;
+        this.lastAccess = lastAccess;
+    }
+
+    JSObject toJson() {
+        JSObject json = new JSObject();
+        json.put("id", identifier);
+        json.put("file", file.getName());
+        json.put("mimeType", mimeType);
+        json.put("type", type);
+        if (source != null) {
+            json.put("source", source.toString());
+        }
+        json.put("sourceKey", sourceKey);
+        json.put("fileName", fileName);
+        json.put("size", size);
+        json.put("width", width);
+        json.put("height", height);
+        if (durationSeconds != null) {
+            json.put("duration", durationSeconds);
+        }
+        json.put("lastAccess", lastAccess);
+        return json;
+    }
+
+    @Nullable
+    static PickedItem fromJson(JSONObject json, File fileDirectory) {
+        String identifier = json.optString("id", null);
+        String fileName = json.optString("file", null);
+        if (identifier == null || fileName == null) {
+            return null;
+        }
+        String source = json.optString("source", null);
+        return new PickedItem(
+            identifier,
+            new File(fileDirectory, fileName),
+            json.optString("mimeType", "application/octet-stream"),
+            json.optString("type", "image"),
+            source != null ? Uri.parse(source) : null,
+            json.optString("sourceKey", identifier),
+            json.optString("fileName", identifier),
+            json.optLong("size", -1),
+            json.optInt("width", 0),
+            json.optInt("height", 0),
+            json.has("duration") ? json.optDouble("duration") : null,
+            json.optLong("lastAccess", 0)
+        );
+    }
+}
@@ -0,0 +1,140 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** On-disk index of picked items, so their ids keep resolving after a process restart. */
+final class PickedItemStore {
+
+    private static final int VERSION = 1;
+    // Access times only decide expiry after days, so they are refreshed and persisted at most hourly.
+    private static final long ACCESS_RESOLUTION_MS = 60 * 60 * 1000L;
+
+    private final File indexFile;
+    private final File fileDirectory;
+    private final Map<String, PickedItem> items = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private volatile boolean dirty;
+
+    PickedItemStore(File indexFile, File fileDirectory) {
+        this.indexFile = indexFile;
+        this.fileDirectory = fileDirectory;
+    }
+
+    void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(indexFile)) {
+            byte[] data = new byte[(int) indexFile.length()];
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+            JSONObject root = new JSObject(new String(data, 0, offset, StandardCharsets.UTF_8));
+            if (root.optInt("version", 0) != VERSION) {
+                return;
+            }
+            JSONArray entries = root.optJSONArray("items");
+            if (entries == null) {
+                return;
+            }
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.optJSONObject(i);
+                PickedItem item = entry != null ? PickedItem.fromJson(entry, fileDirectory) : null;
+                if (item != null) {
+                    items.put(item.identifier, item);
+                }
+            }
+        } catch (IOException | JSONException ex) {
+            Logger.error("PhotoLibrary", "Failed to read picked item index", ex);
+        }
+    }
+
+    @Nullable
+    PickedItem get(String identifier) {
+        PickedItem item = items.get(identifier);
+        long now = System.currentTimeMillis();
+        if (item != null && now - item.lastAccess >= ACCESS_RESOLUTION_MS) {
+            item.lastAccess = now;
+            dirty = true;
+        }
+        return item;
+    }
+
+    void put(PickedItem item) {
+        items.put(item.identifier, item);
+        dirty = true;
+    }
+
+    void remove(String identifier) {
+        items.remove(identifier);
+        dirty = true;
+    }
+
+    List<PickedItem> snapshot() {
+        return new ArrayList<>(items.values());
+    }
+
+    List<PickedItem> expire(long cutoff) {
+        List<PickedItem> expired = new ArrayList<>();
+        for (PickedItem item : items.values()) {
+            if (item.lastAccess < cutoff && items.remove(item.identifier, item)) {
+                expired.add(item);
+            }
+        }
+        return expired;
+    }
+
+    void saveIfDirty() {
+        if (dirty) {
+            save();
+        }
+    }
+
+    void save() {
+        synchronized (writeLock) {
+            dirty = false;
+            JSArray entries = new JSArray();
+            for (PickedItem item : items.values()) {
+                entries.put(item.toJson());
+            }
+            JSObject root = new JSObject();
+            root.put("version", VERSION);
+            root.put("items", entries);
+
+            File partial = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(partial)) {
+                out.write(root.toString().getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            } catch (IOException ex) {
+                Logger.error("PhotoLibrary", "Failed to write picked item index", ex);
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+                dirty = true;
+                return;
+            }
+            if (!partial.renameTo(indexFile)) {
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+                dirty = true;
+            }
+        }
+    }
+}
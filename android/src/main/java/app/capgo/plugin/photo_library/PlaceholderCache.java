@@ -0,0 +1,146 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Persistent BlurHash and dominant color keyed by MediaStore id and DATE_MODIFIED. */
+final class PlaceholderCache {
+
+    private static final int VERSION = 1;
+    // Placeholders computed while paging are written once this many are unsaved or after this long.
+    private static final int SAVE_THRESHOLD = 256;
+    private static final long SAVE_INTERVAL_MS = 60_000;
+
+    static final class Placeholder {
+
+        final String blurHash;
+        final int color;
+
+        Placeholder(String blurHash, int color) {
+            this.blurHash = blurHash;
+            this.color = color;
+        }
+    }
+
+    private final File file;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+    private final AtomicInteger unsaved = new AtomicInteger();
+    private volatile long lastSaved = System.currentTimeMillis();
+
+    PlaceholderCache(File file) {
+        this.file = file;
+    }
+
+    synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                long modified = in.readLong();
+                String blurHash = in.readUTF();
+                int color = in.readInt();
+                entries.put(id, new Entry(modified, new Placeholder(blurHash, color)));
+            }
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to read placeholder cache", ex);
+        }
+    }
+
+    @Nullable
+    Placeholder get(long id, long modified) {
+        Entry entry = entries.get(id);
+        return entry != null && entry.modified == modified ? entry.placeholder : null;
+    }
+
+    void put(long id, long modified, Placeholder placeholder) {
+        entries.put(id, new Entry(modified, placeholder));
+        dirty = true;
+        unsaved.incrementAndGet();
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void saveIfDue() {
+        int count = unsaved.get();
+        if (count >= SAVE_THRESHOLD || (count > 0 && System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MS)) {
+            save();
+        }
+    }
+
+    void save() {
+        synchronized (writeLock) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            unsaved.set(0);
+            lastSaved = System.currentTimeMillis();
+            File partial = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (FileOutputStream stream = new FileOutputStream(partial)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                Map<Long, Entry> snapshot = new HashMap<>(entries);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Long, Entry> item : snapshot.entrySet()) {
+                    out.writeLong(item.getKey());
+                    out.writeLong(item.getValue().modified);
+                    out.writeUTF(item.getValue().placeholder.blurHash);
+                    out.writeInt(item.getValue().placeholder.color);
+                }
+                out.flush();
+                stream.getFD().sync();
+            } catch (IOException ex) {
+                Logger.error("PhotoLibrary", "Failed to write placeholder cache", ex);
+                dirty = true;
+                unsaved.incrementAndGet();
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+                return;
+            }
+            if (!partial.renameTo(file)) {
+                dirty = true;
+                unsaved.incrementAndGet();
+                //noinspection ResultOfMethodCallIgnored
+                partial.delete();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final long modified;
+        final Placeholder placeholder;
+
+        Entry(long modified, Placeholder placeholder) {
+            this.modified = modified;
+            this.placeholder = placeholder;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** A few open {@link BitmapRegionDecoder}s, so consecutive tiles of an image skip re-parsing the file. */
+final class RegionDecoderCache {
+
+    private static final int MAX_OPEN_DECODERS = 3;
+
+    private final ContentResolver resolver;
+    private final LruCache<String, Entry> decoders = new LruCache<String, Entry>(MAX_OPEN_DECODERS) {
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+            oldValue.close();
+        }
+    };
+
+    RegionDecoderCache(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Nullable
+    Entry get(String key, Uri source) throws IOException {
+        synchronized (decoders) {
+            Entry entry = decoders.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        int orientation;
+        try (InputStream in = resolver.openInputStream(source)) {
+            if (in == null) {
+                return null;
+            }
+            orientation = BitmapUtils.readOrientation(in);
+        }
+
+        ParcelFileDescriptor descriptor = resolver.openFileDescriptor(source, "r");
+        if (descriptor == null) {
+            return null;
+        }
+        BitmapRegionDecoder decoder;
+        try {
+            //noinspection deprecation
+            decoder = BitmapRegionDecoder.newInstance(descriptor.getFileDescriptor(), false);
+        } catch (IOException ex) {
+            descriptor.close();
+            throw ex;
+        }
+        if (decoder == null) {
+            descriptor.close();
+            return null;
+        }
+
+        Entry entry = new Entry(decoder, descriptor, orientation);
+        synchronized (decoders) {
+            Entry existing = decoders.get(key);
+            if (existing != null) {
+                entry.close();
+                return existing;
+            }
+            decoders.put(key, entry);
+        }
+        return entry;
+    }
+
+    void clear() {
+        synchronized (decoders) {
+            decoders.evictAll();
+        }
+    }
+
+    static final class Entry {
+
+        final BitmapRegionDecoder decoder;
+        final int orientation;
+        private final ParcelFileDescriptor descriptor;
+
+        Entry(BitmapRegionDecoder decoder, ParcelFileDescriptor descriptor, int orientation) {
+            this.decoder = decoder;
+            this.descriptor = descriptor;
+            this.orientation = orientation;
+        }
+
+        /** Returns {@code null} when the decoder was recycled by a concurrent eviction. */
+        @Nullable
+        Bitmap decode(Rect region, int sampleSize) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            try {
+                return decoder.decodeRegion(region, options);
+            } catch (IllegalStateException ex) {
+                return null;
+            }
+        }
+
+        private void close() {
+            decoder.recycle();
+            try {
+                descriptor.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.PluginCall;
+
+final class ThumbnailAtlasOptions {
+
+    static final int MAX_TILES = 256;
+    static final int MAX_ATLAS_SIZE = 4096;
+    static final int DEFAULT_TILE_SIZE = 256;
+
+    final GetLibraryOptions library;
+    final int tileWidth;
+    final int tileHeight;
+    final int columns;
+    final String format;
+    final double quality;
+
+    private ThumbnailAtlasOptions(GetLibraryOptions library, int tileWidth, int tileHeight, int columns, String format, double quality) {
+        this.library = library;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.columns = columns;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    static ThumbnailAtlasOptions fromCall(PluginCall call) {
+        GetLibraryOptions library = GetLibraryOptions.fromCall(call);
+        if (library.limit == null || library.limit > MAX_TILES) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_TILES);
+        }
+
+        int tileWidth = call.getInt("tileWidth", DEFAULT_TILE_SIZE);
+        int tileHeight = call.getInt("tileHeight", DEFAULT_TILE_SIZE);
+        if (tileWidth <= 0 || tileHeight <= 0) {
+            throw new IllegalArgumentException("tileWidth and tileHeight must be greater than 0");
+        }
+
+        int defaultColumns = Math.max(1, Math.min(library.limit, MAX_ATLAS_SIZE / tileWidth));
+        int columns = call.getInt("columns", defaultColumns);
+        if (columns <= 0) {
+            throw new IllegalArgumentException("columns must be greater than 0");
+        }
+        int rows = (library.limit + columns - 1) / columns;
+        if ((long) columns * tileWidth > MAX_ATLAS_SIZE || (long) rows * tileHeight > MAX_ATLAS_SIZE) {
+            throw new IllegalArgumentException("The atlas must fit inside " + MAX_ATLAS_SIZE + "x" + MAX_ATLAS_SIZE + " pixels");
+        }
+
+        String format = call.getString("format", "jpeg");
+        if (!"jpeg".equals(format) && !"webp".equals(format)) {
+            throw new IllegalArgumentException("format must be 'jpeg' or 'webp'");
+        }
+
+        Double qualityOption = call.getDouble("quality");
+        double quality = qualityOption != null ? qualityOption : PhotoLibraryDefaults.THUMBNAIL_QUALITY;
+        quality = Math.max(0.0, Math.min(1.0, quality));
+
+        return new ThumbnailAtlasOptions(library, tileWidth, tileHeight, columns, format, quality);
+    }
+}
@@ -0,0 +1,79 @@
+package app.capgo.plugin.photo_library;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+final class ThumbnailFiles implements ThumbnailStore {
+
+    private final File directory;
+
+    ThumbnailFiles(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean contains(String name) {
+        return new File(directory, name).exists();
+    }
+
+    @Override
+    public void put(String name, byte[] data) throws IOException {
+        File target = new File(directory, name);
+        File partial = new File(directory, name + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(partial)) {
+            out.write(data);
+        }
+        if (!partial.renameTo(target)) {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            throw new IOException("Failed to store thumbnail " + name);
+        }
+    }
+
+    @Override
+    public void flush() {}
+
+    @Nullable
+    @Override
+    public Bitmap decode(String name, BitmapFactory.Options options) {
+        return BitmapFactory.decodeFile(new File(directory, name).getAbsolutePath(), options);
+    }
+
+    @Nullable
+    @Override
+    public Location locate(String name) {
+        File file = new File(directory, name);
+        return file.exists() ? new Location(file, 0, file.length(), false) : null;
+    }
+
+    @Override
+    public Iterable<String> names() {
+        List<String> names = new ArrayList<>();
+        String[] files = directory.list();
+        if (files != null) {
+            for (String name : files) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public void removeAsset(String assetHash) {
+        String prefix = assetHash + "_";
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+}
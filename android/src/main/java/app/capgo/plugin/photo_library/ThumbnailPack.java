@@ -0,0 +1,459 @@
+package app.capgo.plugin.photo_library;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Thumbnails appended to one data file, indexed by fixed-size records. The data file is synced
+ * before a batch of records is appended, so a record never points at data that did not reach storage.
+ */
+final class ThumbnailPack implements ThumbnailStore {
+
+    // name length (2), name (100), offset (8), length (4), data CRC (4), padding, record CRC (4).
+    private static final int RECORD_SIZE = 128;
+    private static final int MAX_NAME_BYTES = 100;
+    private static final int RECORD_CRC_OFFSET = RECORD_SIZE - 4;
+    // Data is mapped in windows so the pack can outgrow a single mapping; entries never straddle two.
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static final long COMPACT_MIN_DEAD_BYTES = 8L * 1024 * 1024;
+    private static final int MAX_PENDING = 64;
+
+    private static final class Entry {
+
+        final long offset;
+        final int length;
+        final int crc;
+
+        Entry(long offset, int length, int crc) {
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    private final File directory;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, MappedByteBuffer> windows = new ConcurrentHashMap<>();
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private volatile boolean opened;
+    private long generation;
+    private File dataFile;
+    @Nullable
+    private FileChannel data;
+    @Nullable
+    private FileChannel index;
+    private long dataLength;
+    private long liveBytes;
+    private long deadBytes;
+
+    ThumbnailPack(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean contains(String name) {
+        open();
+        return entries.containsKey(name);
+    }
+
+    @Override
+    public synchronized void put(String name, byte[] bytes) throws IOException {
+        open();
+        if (data == null || index == null) {
+            throw new IOException("Thumbnail pack is unavailable");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME_BYTES || bytes.length == 0 || bytes.length > MAP_WINDOW) {
+            throw new IOException("Cannot pack thumbnail " + name);
+        }
+
+        long offset = alignedOffset(dataLength, bytes.length);
+        writeFully(data, ByteBuffer.wrap(bytes), offset);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        Entry entry = new Entry(offset, bytes.length, (int) crc.getValue());
+
+        deadBytes += offset - dataLength;
+        dataLength = offset + bytes.length;
+        track(name, entry);
+        pending.put(name, entry);
+        if (pending.size() >= MAX_PENDING) {
+            commit();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            commit();
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to commit packed thumbnails", ex);
+            for (String name : pending.keySet()) {
+                track(name, null);
+            }
+            pending.clear();
+        }
+    }
+
+    private void commit() throws IOException {
+        if (data == null || index == null) {
+            throw new IOException("Thumbnail pack is unavailable");
+        }
+        data.force(false);
+        ByteBuffer records = ByteBuffer.allocate(pending.size() * RECORD_SIZE);
+        for (Map.Entry<String, Entry> item : pending.entrySet()) {
+            records.put(record(item.getKey().getBytes(StandardCharsets.UTF_8), item.getValue()));
+        }
+        records.flip();
+        writeFully(index, records, index.size());
+        pending.clear();
+    }
+
+    @Nullable
+    @Override
+    public Bitmap decode(String name, BitmapFactory.Options options) {
+        byte[] bytes = read(name);
+        return bytes != null ? BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options) : null;
+    }
+
+    @Nullable
+    @Override
+    public Location locate(String name) {
+        open();
+        Entry entry = entries.get(name);
+        return entry != null ? new Location(dataFile, entry.offset, entry.length, true) : null;
+    }
+
+    @Override
+    public Iterable<String> names() {
+        open();
+        return new ArrayList<>(entries.keySet());
+    }
+
+    @Override
+    public synchronized void removeAsset(String assetHash) {
+        open();
+        if (index == null) {
+            return;
+        }
+        String prefix = assetHash + "_";
+        for (String name : new ArrayList<>(entries.keySet())) {
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            try {
+                pending.remove(name);
+                writeFully(index, record(name.getBytes(StandardCharsets.UTF_8), new Entry(0, 0, 0)), index.size());
+                track(name, null);
+            } catch (IOException ex) {
+                Logger.error("PhotoLibrary", "Failed to remove packed thumbnail", ex);
+                return;
+            }
+        }
+    }
+
+    List<String> corruptEntries() {
+        open();
+        List<String> corrupt = new ArrayList<>();
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            byte[] bytes = read(item.getKey());
+            if (bytes == null) {
+                corrupt.add(item.getKey());
+                continue;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            boolean ended = bytes.length >= 2 && (bytes[bytes.length - 2] & 0xFF) == 0xFF && (bytes[bytes.length - 1] & 0xFF) == 0xD9;
+            if ((int) crc.getValue() != item.getValue().crc || !ended) {
+                corrupt.add(item.getKey());
+            }
+        }
+        return corrupt;
+    }
+
+    int size() {
+        open();
+        return entries.size();
+    }
+
+    File dataFile() {
+        open();
+        return dataFile;
+    }
+
+    synchronized void close() {
+        flush();
+        closeChannels();
+        entries.clear();
+        opened = false;
+    }
+
+    synchronized long generation() {
+        open();
+        return generation;
+    }
+
+    @Nullable
+    private byte[] read(String name) {
+        open();
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            ByteBuffer slice = slice(entry);
+            byte[] bytes = new byte[entry.length];
+            slice.get(bytes);
+            return bytes;
+        } catch (IOException ex) {
+            Logger.error("PhotoLibrary", "Failed to read packed thumbnail", ex);
+            return null;
+        }
+    }
+
+    private ByteBuffer slice(Entry entry) throws IOException {
+        long windowStart = entry.offset - entry.offset % MAP_WINDOW;
+        long end = entry.offset + entry.length - windowStart;
+        MappedByteBuffer window = windows.get(windowStart);
+        if (window == null || window.capacity() < end) {
+            window = mapWindow(windowStart);
+        }
+        ByteBuffer view = window.duplicate();
+        view.position((int) (entry.offset - windowStart));
+        view.limit((int) end);
+        return view.slice();
+    }
+
+    private synchronized MappedByteBuffer mapWindow(long windowStart) throws IOException {
+        if (data == null) {
+            throw new IOException("Thumbnail pack is unavailable");
+        }
+        // Map only up to the committed length: mapping past the end would grow a writable file.
+        long size = Math.min(MAP_WINDOW, dataLength - windowStart);
+        MappedByteBuffer window = data.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+        windows.put(windowStart, window);
+        return window;
+    }
+
+    private void track(String name, @Nullable Entry entry) {
+        Entry previous = entry != null ? entries.put(name, entry) : entries.remove(name);
+        if (previous != null) {
+            liveBytes -= previous.length;
+            deadBytes += previous.length;
+        }
+        if (entry != null) {
+            liveBytes += entry.length;
+        }
+    }
+
+    private void open() {
+        if (opened) {
+            return;
+        }
+        synchronized (this) {
+            if (opened) {
+                return;
+            }
+            if (!directory.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                directory.mkdirs();
+            }
+            try {
+                openGeneration(readCurrent());
+                if (deadBytes > COMPACT_MIN_DEAD_BYTES && deadBytes > liveBytes) {
+                    compact();
+                }
+            } catch (IOException ex) {
+                Logger.error("PhotoLibrary", "Thumbnail pack is unreadable, starting a new one", ex);
+                try {
+                    closeChannels();
+                    long next = generation + 1;
+                    writeCurrent(next);
+                    openGeneration(next);
+                } catch (IOException retry) {
+                    Logger.error("PhotoLibrary", "Failed to create thumbnail pack", retry);
+                    closeChannels();
+                }
+            }
+            deleteOtherGenerations();
+            opened = true;
+        }
+    }
+
+    private void openGeneration(long gen) throws IOException {
+        entries.clear();
+        windows.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        generation = gen;
+        dataFile = new File(directory, "data-" + gen + ".pack");
+        data = new RandomAccessFile(dataFile, "rw").getChannel();
+        index = new RandomAccessFile(new File(directory, "index-" + gen + ".idx"), "rw").getChannel();
+
+        long dataSize = data.size();
+        long indexSize = index.size() - index.size() % RECORD_SIZE;
+        long committed = 0;
+        long dataEnd = 0;
+        if (indexSize > 0) {
+            MappedByteBuffer records = index.map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+            byte[] record = new byte[RECORD_SIZE];
+            CRC32 crc = new CRC32();
+            for (long position = 0; position < indexSize; position += RECORD_SIZE) {
+                records.get(record);
+                crc.reset();
+                crc.update(record, 0, RECORD_CRC_OFFSET);
+                ByteBuffer fields = ByteBuffer.wrap(record);
+                if ((int) crc.getValue() != fields.getInt(RECORD_CRC_OFFSET)) {
+                    break;
+                }
+                int nameLength = fields.getShort(0);
+                long offset = fields.getLong(2 + MAX_NAME_BYTES);
+                int length = fields.getInt(10 + MAX_NAME_BYTES);
+                if (nameLength <= 0 || nameLength > MAX_NAME_BYTES || length < 0 || offset < 0 || offset + length > dataSize) {
+                    break;
+                }
+                String name = new String(record, 2, nameLength, StandardCharsets.UTF_8);
+                track(name, length > 0 ? new Entry(offset, length, fields.getInt(14 + MAX_NAME_BYTES)) : null);
+                dataEnd = Math.max(dataEnd, offset + length);
+                committed = position + RECORD_SIZE;
+            }
+        }
+        index.truncate(committed);
+        data.truncate(dataEnd);
+        dataLength = dataEnd;
+        deadBytes = dataLength - liveBytes;
+    }
+
+    private void compact() throws IOException {
+        long next = generation + 1;
+        File nextData = new File(directory, "data-" + next + ".pack");
+        File nextIndex = new File(directory, "index-" + next + ".idx");
+        long written = 0;
+        try (
+            FileChannel dataOut = new RandomAccessFile(nextData, "rw").getChannel();
+            FileChannel indexOut = new RandomAccessFile(nextIndex, "rw").getChannel()
+        ) {
+            dataOut.truncate(0);
+            indexOut.truncate(0);
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                ByteBuffer bytes = slice(entry);
+                long offset = alignedOffset(written, entry.length);
+                writeFully(dataOut, bytes, offset);
+                Entry moved = new Entry(offset, entry.length, entry.crc);
+                writeFully(indexOut, record(item.getKey().getBytes(StandardCharsets.UTF_8), moved), indexOut.size());
+                written = offset + entry.length;
+            }
+            dataOut.force(false);
+            indexOut.force(false);
+        }
+        long before = dataLength;
+        closeChannels();
+        writeCurrent(next);
+        openGeneration(next);
+        Logger.debug("PhotoLibrary", "Compacted thumbnail pack from " + before + " to " + dataLength + " bytes");
+    }
+
+    private long readCurrent() {
+        File current = new File(directory, "CURRENT");
+        if (!current.exists()) {
+            return 0;
+        }
+        try (FileInputStream in = new FileInputStream(current)) {
+            byte[] bytes = new byte[32];
+            int read = in.read(bytes);
+            return read > 0 ? Long.parseLong(new String(bytes, 0, read, StandardCharsets.US_ASCII).trim()) : 0;
+        } catch (IOException | NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private void writeCurrent(long gen) throws IOException {
+        File partial = new File(directory, "CURRENT.tmp");
+        try (FileOutputStream out = new FileOutputStream(partial)) {
+            out.write(Long.toString(gen).getBytes(StandardCharsets.US_ASCII));
+            out.getFD().sync();
+        }
+        if (!partial.renameTo(new File(directory, "CURRENT"))) {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            throw new IOException("Failed to switch thumbnail pack generation");
+        }
+    }
+
+    private void deleteOtherGenerations() {
+        String dataName = "data-" + generation + ".pack";
+        String indexName = "index-" + generation + ".idx";
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals("CURRENT") && !name.equals(dataName) && !name.equals(indexName)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private void closeChannels() {
+        for (FileChannel channel : new FileChannel[] { data, index }) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+        data = null;
+        index = null;
+        windows.clear();
+    }
+
+    private static long alignedOffset(long end, int length) {
+        long windowEnd = end - end % MAP_WINDOW + MAP_WINDOW;
+        return end + length > windowEnd ? windowEnd : end;
+    }
+
+    private static ByteBuffer record(byte[] name, Entry entry) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putShort(0, (short) name.length);
+        for (int i = 0; i < name.length; i++) {
+            record.put(2 + i, name[i]);
+        }
+        record.putLong(2 + MAX_NAME_BYTES, entry.offset);
+        record.putInt(10 + MAX_NAME_BYTES, entry.length);
+        record.putInt(14 + MAX_NAME_BYTES, entry.crc);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_CRC_OFFSET);
+        record.putInt(RECORD_CRC_OFFSET, (int) crc.getValue());
+        return record;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
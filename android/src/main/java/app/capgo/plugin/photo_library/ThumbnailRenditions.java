@@ -0,0 +1,114 @@
+package app.capgo.plugin.photo_library;
+
+import androidx.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Thumbnails cached per asset, so a size can be derived from a larger cached rendition. */
+final class ThumbnailRenditions {
+
+    // <assetHash>_<w>x<h>_q<quality>.jpg, or <assetHash>_<w>x<h>_b<maxBytes>_q<quality>.jpg for byte budgets.
+    private static final Pattern NAME = Pattern.compile("([0-9a-f]+)_(\\d+)x(\\d+)(?:_b(\\d+))?_q(\\d+)\\.jpg");
+
+    static final class Rendition {
+
+        final String name;
+        final int width;
+        final int height;
+        final int quality;
+        // Byte budget the quality was chosen for, 0 for a fixed quality.
+        final int maxBytes;
+
+        Rendition(String name, int width, int height, int quality, int maxBytes) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    private final ThumbnailStore store;
+    private final Map<String, Map<String, Rendition>> byAsset = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    ThumbnailRenditions(ThumbnailStore store) {
+        this.store = store;
+    }
+
+    void add(String name) {
+        Matcher matcher = NAME.matcher(name);
+        if (!matcher.matches()) {
+            return;
+        }
+        Rendition rendition = new Rendition(
+            name,
+            Integer.parseInt(matcher.group(2)),
+            Integer.parseInt(matcher.group(3)),
+            Integer.parseInt(matcher.group(5)),
+            matcher.group(4) != null ? Integer.parseInt(matcher.group(4)) : 0
+        );
+        byAsset.computeIfAbsent(matcher.group(1), (key) -> new ConcurrentHashMap<>()).put(name, rendition);
+    }
+
+    void forget(String assetHash) {
+        byAsset.remove(assetHash);
+    }
+
+    /** Smallest cached rendition covering the size at no lower quality; entries that left the store are dropped. */
+    @Nullable
+    Rendition best(String assetHash, int width, int height, int quality) {
+        load();
+        Map<String, Rendition> renditions = byAsset.get(assetHash);
+        if (renditions == null) {
+            return null;
+        }
+        Rendition best = null;
+        for (Rendition rendition : renditions.values()) {
+            if (rendition.width < width || rendition.height < height || rendition.quality < quality) {
+                continue;
+            }
+            if (best != null && (long) rendition.width * rendition.height >= (long) best.width * best.height) {
+                continue;
+            }
+            if (!store.contains(rendition.name)) {
+                renditions.remove(rendition.name);
+                continue;
+            }
+            best = rendition;
+        }
+        return best;
+    }
+
+    @Nullable
+    Rendition budgeted(String assetHash, int width, int height, int maxBytes) {
+        load();
+        Map<String, Rendition> renditions = byAsset.get(assetHash);
+        if (renditions == null) {
+            return null;
+        }
+        for (Rendition rendition : renditions.values()) {
+            if (rendition.maxBytes == maxBytes && rendition.width == width && rendition.height == height) {
+                return rendition;
+            }
+        }
+        return null;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            for (String name : store.names()) {
+                add(name);
+            }
+            loaded = true;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.PluginCall;
+import org.json.JSONObject;
+
+final class ThumbnailSetOptions {
+
+    static final int MAX_SIZES = 8;
+
+    final String id;
+    // {width, height} pairs in request order.
+    final int[][] sizes;
+    final double quality;
+    // Byte budget per thumbnail, 0 to encode at quality.
+    final int maxBytes;
+
+    private ThumbnailSetOptions(String id, int[][] sizes, double quality, int maxBytes) {
+        this.id = id;
+        this.sizes = sizes;
+        this.quality = quality;
+        this.maxBytes = maxBytes;
+    }
+
+    static ThumbnailSetOptions fromCall(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'id' is required");
+        }
+
+        JSArray array = call.getArray("sizes");
+        if (array == null || array.length() == 0 || array.length() > MAX_SIZES) {
+            throw new IllegalArgumentException("Parameter 'sizes' must contain between 1 and " + MAX_SIZES + " sizes");
+        }
+        int[][] sizes = new int[array.length()][];
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject size = array.optJSONObject(i);
+            int width = size != null ? size.optInt("width", 0) : 0;
+            int height = size != null ? size.optInt("height", 0) : 0;
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Each size needs a width and height greater than 0");
+            }
+            sizes[i] = new int[] { width, height };
+        }
+
+        Double qualityOption = call.getDouble("quality");
+        double quality = qualityOption != null ? qualityOption : PhotoLibraryDefaults.THUMBNAIL_QUALITY;
+        quality = Math.max(0.0, Math.min(1.0, quality));
+        int maxBytes = GetLibraryOptions.maxBytesOption(call, "maxBytes");
+
+        return new ThumbnailSetOptions(id, sizes, quality, maxBytes);
+    }
+}
@@ -0,0 +1,43 @@
+package app.capgo.plugin.photo_library;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+
+/** Encoded thumbnails keyed by {@code <assetHash>_<w>x<h>[_b<maxBytes>]_q<quality>.jpg}. */
+interface ThumbnailStore {
+    /** The whole {@code file}, or a byte range of it when {@code packed}. */
+    final class Location {
+
+        final File file;
+        final long offset;
+        final long length;
+        final boolean packed;
+
+        Location(File file, long offset, long length, boolean packed) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.packed = packed;
+        }
+    }
+
+    boolean contains(String name);
+
+    void put(String name, byte[] data) throws IOException;
+
+    /** Makes every thumbnail put so far durable; a store may defer that from {@link #put} to batch it. */
+    void flush();
+
+    @Nullable
+    Bitmap decode(String name, BitmapFactory.Options options);
+
+    @Nullable
+    Location locate(String name);
+
+    Iterable<String> names();
+
+    void removeAsset(String assetHash);
+}
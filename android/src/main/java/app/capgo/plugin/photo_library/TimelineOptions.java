@@ -0,0 +1,48 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.PluginCall;
+
+final class TimelineOptions {
+
+    enum Granularity {
+        DAY,
+        MONTH
+    }
+
+    /** Filters and sort direction; the sort column follows {@link #dateField}. */
+    final GetLibraryOptions library;
+    final Granularity granularity;
+    final GetLibraryOptions.SortKey dateField;
+
+    private TimelineOptions(GetLibraryOptions library, Granularity granularity, GetLibraryOptions.SortKey dateField) {
+        this.library = library;
+        this.granularity = granularity;
+        this.dateField = dateField;
+    }
+
+    static TimelineOptions fromCall(PluginCall call) {
+        GetLibraryOptions library = GetLibraryOptions.fromCall(call);
+
+        String granularityValue = call.getString("granularity", "day");
+        Granularity granularity;
+        if ("day".equals(granularityValue)) {
+            granularity = Granularity.DAY;
+        } else if ("month".equals(granularityValue)) {
+            granularity = Granularity.MONTH;
+        } else {
+            throw new IllegalArgumentException("granularity must be 'day' or 'month'");
+        }
+
+        String fieldValue = call.getString("dateField", "creationDate");
+        GetLibraryOptions.SortKey dateField;
+        if ("creationDate".equals(fieldValue)) {
+            dateField = GetLibraryOptions.SortKey.CREATION_DATE;
+        } else if ("dateAdded".equals(fieldValue)) {
+            dateField = GetLibraryOptions.SortKey.DATE_ADDED;
+        } else {
+            throw new IllegalArgumentException("dateField must be 'creationDate' or 'dateAdded'");
+        }
+
+        return new TimelineOptions(library, granularity, dateField);
+    }
+}
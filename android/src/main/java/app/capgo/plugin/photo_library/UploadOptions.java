@@ -0,0 +1,123 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+final class UploadOptions {
+
+    static final int DEFAULT_MAX_RETRIES = 3;
+    static final int MAX_RETRIES = 10;
+    static final int MIN_CHUNK_SIZE = 256 * 1024;
+
+    final String id;
+    final String taskId;
+    final String url;
+    final String method;
+    final Map<String, String> headers;
+    final Map<String, String> parameters;
+    final String fieldName;
+    final boolean multipart;
+    final long chunkSize;
+    final int maxRetries;
+
+    UploadOptions(
+        String id,
+        String taskId,
+        String url,
+        String method,
+        Map<String, String> headers,
+        Map<String, String> parameters,
+        String fieldName,
+        boolean multipart,
+        long chunkSize,
+        int maxRetries
+    ) {
+        this.id = id;
+        this.taskId = taskId;
+        this.url = url;
+        this.method = method;
+        this.headers = headers;
+        this.parameters = parameters;
+        this.fieldName = fieldName;
+        this.multipart = multipart;
+        this.chunkSize = chunkSize;
+        this.maxRetries = maxRetries;
+    }
+
+    static UploadOptions fromCall(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'id' is required");
+        }
+
+        String url = call.getString("url");
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            throw new IllegalArgumentException("Parameter 'url' must be an http or https URL");
+        }
+
+        String method = call.getString("method", "POST").toUpperCase(Locale.US);
+        if (!method.equals("POST") && !method.equals("PUT") && !method.equals("PATCH")) {
+            throw new IllegalArgumentException("method must be one of POST, PUT or PATCH");
+        }
+
+        String uploadType = call.getString("uploadType", "multipart");
+        if (!uploadType.equals("multipart") && !uploadType.equals("binary")) {
+            throw new IllegalArgumentException("uploadType must be 'multipart' or 'binary'");
+        }
+        boolean multipart = uploadType.equals("multipart");
+
+        long chunkSize = 0;
+        Integer chunkOption = call.getInt("chunkSize");
+        if (chunkOption != null) {
+            if (multipart) {
+                throw new IllegalArgumentException("chunkSize is only supported with uploadType 'binary'");
+            }
+            if (chunkOption < MIN_CHUNK_SIZE) {
+                throw new IllegalArgumentException("chunkSize must be at least " + MIN_CHUNK_SIZE + " bytes");
+            }
+            chunkSize = chunkOption;
+        }
+
+        int maxRetries = call.getInt("maxRetries", DEFAULT_MAX_RETRIES);
+        if (maxRetries < 0 || maxRetries > MAX_RETRIES) {
+            throw new IllegalArgumentException("maxRetries must be between 0 and " + MAX_RETRIES);
+        }
+
+        String taskId = call.getString("taskId");
+        if (taskId == null || taskId.isEmpty()) {
+            taskId = UUID.randomUUID().toString();
+        }
+
+        return new UploadOptions(
+            id,
+            taskId,
+            url,
+            method,
+            stringMap(call.getObject("headers")),
+            stringMap(call.getObject("parameters")),
+            call.getString("fieldName", "file"),
+            multipart,
+            chunkSize,
+            maxRetries
+        );
+    }
+
+    private static Map<String, String> stringMap(JSObject object) {
+        if (object == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            values.put(key, object.optString(key, ""));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,460 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Streams assets from their content URI straight to an HTTP endpoint, retrying with exponential backoff. */
+final class UploadQueue {
+
+    static final String EVENT_UPLOAD_PROGRESS = "uploadProgress";
+
+    private static final long PROGRESS_INTERVAL_NANOS = 250_000_000L;
+    private static final long RETRY_BASE_DELAY_MS = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+    private static final int READ_TIMEOUT_MS = 60_000;
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024;
+    // Status used by resumable upload protocols to acknowledge a chunk that is not the last one.
+    private static final int HTTP_RESUME_INCOMPLETE = 308;
+
+    static final class Source {
+
+        final Uri uri;
+        final String fileName;
+        final String mimeType;
+
+        Source(Uri uri, String fileName, String mimeType) {
+            this.uri = uri;
+            this.fileName = fileName;
+            this.mimeType = mimeType;
+        }
+    }
+
+    interface Opener {
+        Body open(Source source) throws IOException;
+    }
+
+    /** {@code length} bytes of an open file from {@code startOffset}, or the rest of it when the length is -1. */
+    static final class Body implements Closeable {
+
+        final FileInputStream in;
+        final long startOffset;
+        final long length;
+
+        @Nullable
+        private final Closeable owner;
+
+        Body(FileInputStream in, long startOffset, long length, @Nullable Closeable owner) {
+            this.in = in;
+            this.startOffset = startOffset;
+            this.length = length;
+            this.owner = owner;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                if (owner != null) {
+                    owner.close();
+                }
+            }
+        }
+    }
+
+    private final Opener opener;
+    private final ExecutorService workers;
+    private final Map<String, AtomicBoolean> active = new ConcurrentHashMap<>();
+
+    @Nullable
+    private volatile CopyTasks.Listener listener;
+
+    UploadQueue(ContentResolver resolver, int concurrency) {
+        this(source -> openAsset(resolver, source), concurrency);
+    }
+
+    UploadQueue(Opener opener, int concurrency) {
+        this.opener = opener;
+        this.workers = Executors.newFixedThreadPool(concurrency);
+    }
+
+    void setListener(@Nullable CopyTasks.Listener listener) {
+        this.listener = listener;
+    }
+
+    void enqueue(UploadOptions options, Source source) {
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        if (active.putIfAbsent(options.taskId, cancelled) != null) {
+            throw new IllegalArgumentException("An upload with task id " + options.taskId + " is already queued");
+        }
+        emit(options, "queued", 0, -1, 0, System.nanoTime(), null);
+        workers.execute(() -> {
+            try {
+                run(options, source, cancelled);
+            } finally {
+                active.remove(options.taskId);
+            }
+        });
+    }
+
+    boolean cancel(String taskId) {
+        AtomicBoolean flag = active.get(taskId);
+        if (flag == null) {
+            return false;
+        }
+        flag.set(true);
+        return true;
+    }
+
+    private void run(UploadOptions options, Source source, AtomicBoolean cancelled) {
+        long started = System.nanoTime();
+        Progress progress = new Progress();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (cancelled.get()) {
+                    throw new CopyTasks.CancelledException();
+                }
+                emit(options, "running", progress.sent, progress.total, attempt, started, null);
+                Response response = options.chunkSize > 0
+                    ? uploadRanges(options, source, progress, cancelled, attempt, started)
+                    : uploadWhole(options, source, progress, cancelled, attempt, started);
+                JSObject extra = new JSObject();
+                extra.put("statusCode", response.statusCode);
+                extra.put("responseBody", response.body);
+                emit(options, "completed", progress.sent, progress.total, attempt, started, extra);
+                return;
+            } catch (CopyTasks.CancelledException ex) {
+                emit(options, "cancelled", progress.sent, progress.total, attempt, started, null);
+                return;
+            } catch (IOException ex) {
+                boolean retryable = !(ex instanceof HttpException) || ((HttpException) ex).retryable();
+                JSObject extra = new JSObject();
+                extra.put("error", ex.getMessage());
+                if (ex instanceof HttpException) {
+                    extra.put("statusCode", ((HttpException) ex).statusCode);
+                }
+                if (!retryable || attempt >= options.maxRetries) {
+                    Logger.error("PhotoLibrary", "Upload failed", ex);
+                    emit(options, "failed", progress.sent, progress.total, attempt, started, extra);
+                    return;
+                }
+                emit(options, "retrying", progress.sent, progress.total, attempt, started, extra);
+                if (!sleep(RETRY_BASE_DELAY_MS << Math.min(attempt, 6), cancelled)) {
+                    emit(options, "cancelled", progress.sent, progress.total, attempt, started, null);
+                    return;
+                }
+            }
+        }
+    }
+
+    private Response uploadWhole(
+        UploadOptions options,
+        Source source,
+        Progress progress,
+        AtomicBoolean cancelled,
+        int attempt,
+        long started
+    ) throws IOException {
+        try (Body body = opener.open(source)) {
+            long length = body.length;
+            progress.total = length;
+            progress.sent = 0;
+
+            byte[] preamble = new byte[0];
+            byte[] epilogue = new byte[0];
+            String contentType = source.mimeType;
+            if (options.multipart) {
+                String boundary = "----PhotoLibrary" + UUID.randomUUID().toString().replace("-", "");
+                preamble = multipartPreamble(options, source, boundary);
+                epilogue = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+                contentType = "multipart/form-data; boundary=" + boundary;
+            }
+
+            HttpURLConnection connection = open(options, contentType);
+            try {
+                if (length >= 0) {
+                    connection.setFixedLengthStreamingMode(preamble.length + length + epilogue.length);
+                } else {
+                    connection.setChunkedStreamingMode(BUFFER_SIZE);
+                }
+                // Only seek when needed: a source of unknown length may be a pipe.
+                if (body.startOffset > 0) {
+                    body.in.getChannel().position(body.startOffset);
+                }
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(preamble);
+                    pipe(body.in, out, length >= 0 ? length : Long.MAX_VALUE, options, progress, cancelled, attempt, started);
+                    out.write(epilogue);
+                }
+                Response response = readResponse(connection);
+                if (response.statusCode < 200 || response.statusCode >= 300) {
+                    throw new HttpException(response.statusCode);
+                }
+                return response;
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private Response uploadRanges(
+        UploadOptions options,
+        Source source,
+        Progress progress,
+        AtomicBoolean cancelled,
+        int attempt,
+        long started
+    ) throws IOException {
+        try (Body body = opener.open(source)) {
+            long total = body.length;
+            if (total < 0) {
+                throw new IOException("Ranged uploads need an asset of known size");
+            }
+            progress.total = total;
+            // Only acknowledged bytes count, so a retry resends the range that was in flight.
+            progress.sent = progress.acknowledged;
+
+            while (true) {
+                long start = progress.acknowledged;
+                long end = Math.min(total, start + options.chunkSize);
+                HttpURLConnection connection = open(options, source.mimeType);
+                try {
+                    connection.setFixedLengthStreamingMode(end - start);
+                    if (total > 0) {
+                        connection.setRequestProperty("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + total);
+                    } else {
+                        connection.setRequestProperty("Content-Range", "bytes */0");
+                    }
+                    // The body may be a slice of a larger file, so seek relative to its start offset.
+                    body.in.getChannel().position(body.startOffset + start);
+                    try (OutputStream out = connection.getOutputStream()) {
+                        pipe(body.in, out, end - start, options, progress, cancelled, attempt, started);
+                    }
+
+                    Response response = readResponse(connection);
+                    if (response.statusCode == HTTP_RESUME_INCOMPLETE) {
+                        // The server may have kept less than was sent, so resume from what it reports.
+                        long acknowledged = Math.min(end, acknowledgedEnd(connection));
+                        progress.acknowledged = acknowledged;
+                        progress.sent = acknowledged;
+                        if (acknowledged <= start) {
+                            throw new IOException("Server did not acknowledge the uploaded range");
+                        }
+                        continue;
+                    }
+                    if (response.statusCode < 200 || response.statusCode >= 300) {
+                        throw new HttpException(response.statusCode);
+                    }
+                    progress.acknowledged = end;
+                    if (end >= total) {
+                        return response;
+                    }
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        }
+    }
+
+    private static Body openAsset(ContentResolver resolver, Source source) throws IOException {
+        AssetFileDescriptor descriptor = resolver.openAssetFileDescriptor(source.uri, "r");
+        if (descriptor == null) {
+            throw new IOException("Unable to open asset");
+        }
+        return new Body(
+            new FileInputStream(descriptor.getFileDescriptor()),
+            descriptor.getStartOffset(),
+            descriptor.getLength(),
+            descriptor
+        );
+    }
+
+    private HttpURLConnection open(UploadOptions options, String contentType) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(options.url).openConnection();
+        connection.setRequestMethod(options.method);
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Content-Type", contentType);
+        for (Map.Entry<String, String> header : options.headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return connection;
+    }
+
+    private void pipe(
+        InputStream in,
+        OutputStream out,
+        long limit,
+        UploadOptions options,
+        Progress progress,
+        AtomicBoolean cancelled,
+        int attempt,
+        long started
+    ) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = limit;
+        long lastEmit = System.nanoTime();
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            if (cancelled.get()) {
+                throw new CopyTasks.CancelledException();
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+            progress.sent += read;
+            long now = System.nanoTime();
+            if (now - lastEmit >= PROGRESS_INTERVAL_NANOS) {
+                lastEmit = now;
+                emit(options, "running", progress.sent, progress.total, attempt, started, null);
+            }
+        }
+    }
+
+    private static byte[] multipartPreamble(UploadOptions options, Source source, String boundary) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> field : options.parameters.entrySet()) {
+            builder.append("--").append(boundary).append("\r\n");
+            builder.append("Content-Disposition: form-data; name=\"").append(escapeQuotes(field.getKey())).append("\"\r\n\r\n");
+            builder.append(field.getValue()).append("\r\n");
+        }
+        builder.append("--").append(boundary).append("\r\n");
+        builder
+            .append("Content-Disposition: form-data; name=\"")
+            .append(escapeQuotes(options.fieldName))
+            .append("\"; filename=\"")
+            .append(escapeQuotes(source.fileName))
+            .append("\"\r\n");
+        builder.append("Content-Type: ").append(source.mimeType).append("\r\n\r\n");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escapeQuotes(String value) {
+        return value.replace("\"", "%22").replace("\r", "").replace("\n", "");
+    }
+
+    /** End of {@code Range: bytes=0-N}; a 308 without the header means no bytes were persisted. */
+    private static long acknowledgedEnd(HttpURLConnection connection) {
+        String range = connection.getHeaderField("Range");
+        if (range == null) {
+            return 0;
+        }
+        int dash = range.lastIndexOf('-');
+        try {
+            return dash >= 0 ? Long.parseLong(range.substring(dash + 1).trim()) + 1 : 0;
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static Response readResponse(HttpURLConnection connection) throws IOException {
+        int statusCode = connection.getResponseCode();
+        InputStream stream = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (stream == null) {
+            return new Response(statusCode, "");
+        }
+        try (InputStream in = stream) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1 && body.size() < MAX_RESPONSE_BYTES) {
+                body.write(buffer, 0, Math.min(read, MAX_RESPONSE_BYTES - body.size()));
+            }
+            return new Response(statusCode, new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean sleep(long delayMs, AtomicBoolean cancelled) {
+        long deadline = System.currentTimeMillis() + delayMs;
+        try {
+            while (!cancelled.get()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return true;
+                }
+                Thread.sleep(Math.min(remaining, 100));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void emit(
+        UploadOptions options,
+        String state,
+        long sent,
+        long total,
+        int attempt,
+        long started,
+        @Nullable JSObject extra
+    ) {
+        CopyTasks.Listener current = listener;
+        if (current == null) {
+            return;
+        }
+        double elapsedSeconds = (System.nanoTime() - started) / 1_000_000_000.0;
+        JSObject data = extra != null ? extra : new JSObject();
+        data.put("taskId", options.taskId);
+        data.put("assetId", options.id);
+        data.put("state", state);
+        data.put("bytesSent", sent);
+        data.put("totalBytes", total);
+        data.put("bytesPerSecond", elapsedSeconds > 0 ? Math.round(sent / elapsedSeconds) : 0);
+        data.put("attempt", attempt);
+        current.onEvent(EVENT_UPLOAD_PROGRESS, data);
+    }
+
+    private static final class Progress {
+
+        long sent;
+        long total = -1;
+        long acknowledged;
+    }
+
+    private static final class Response {
+
+        final int statusCode;
+        final String body;
+
+        Response(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+    }
+
+    private static final class HttpException extends IOException {
+
+        final int statusCode;
+
+        HttpException(int statusCode) {
+            super("Server responded with status " + statusCode);
+            this.statusCode = statusCode;
+        }
+
+        boolean retryable() {
+            return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+        }
+    }
+}
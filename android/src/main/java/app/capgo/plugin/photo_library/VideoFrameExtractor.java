@@ -0,0 +1,216 @@
+package app.capgo.plugin.photo_library;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import androidx.annotation.Nullable;
+import com.getcapacitor.Logger;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Video frame decoding with retrievers pooled per asset, so consecutive frames share one demux session. */
+final class VideoFrameExtractor {
+
+    private static final int MAX_POOLED_ASSETS = 4;
+    private static final int MAX_RETRIEVERS_PER_ASSET = 2;
+    // Assumed when a video does not report its dimensions.
+    private static final int FALLBACK_FRAME_WIDTH = 3840;
+    private static final int FALLBACK_FRAME_HEIGHT = 2160;
+
+    private final Context context;
+    private final Map<String, Deque<MediaMetadataRetriever>> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+    VideoFrameExtractor(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Frames at {@code timesUs}, scaled to fit; {@code null} where a frame could not be decoded. Unless
+     * {@code exact}, each frame snaps to the nearest keyframe, which is much cheaper to decode.
+     */
+    List<Bitmap> extractFrames(String key, Source source, long[] timesUs, int width, int height, boolean exact) {
+        List<Bitmap> frames = new ArrayList<>(timesUs.length);
+        MediaMetadataRetriever retriever = acquire(key, source);
+        if (retriever == null) {
+            for (int i = 0; i < timesUs.length; i++) {
+                frames.add(null);
+            }
+            return frames;
+        }
+
+        boolean healthy = true;
+        try {
+            for (long timeUs : timesUs) {
+                frames.add(decodeFrame(retriever, timeUs, width, height, exact));
+            }
+        } catch (RuntimeException ex) {
+            Logger.debug("PhotoLibrary", "Frame extraction failed: " + ex.getMessage());
+            healthy = false;
+            while (frames.size() < timesUs.length) {
+                frames.add(null);
+            }
+        } finally {
+            if (healthy) {
+                recycle(key, retriever);
+            } else {
+                releaseQuietly(retriever);
+            }
+        }
+        return frames;
+    }
+
+    /** Returns the duration of the video in microseconds, or {@code 0} if unknown. */
+    long durationUs(String key, Source source) {
+        MediaMetadataRetriever retriever = acquire(key, source);
+        if (retriever == null) {
+            return 0;
+        }
+        try {
+            String value = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return value != null ? Long.parseLong(value) * 1000L : 0;
+        } catch (RuntimeException ex) {
+            return 0;
+        } finally {
+            recycle(key, retriever);
+        }
+    }
+
+    /** Bytes of the full-size frame decoded before scaling below O_MR1; {@code 0} where frames are decoded scaled. */
+    long unscaledFrameBytes(String key, Source source) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            return 0;
+        }
+        MediaMetadataRetriever retriever = acquire(key, source);
+        if (retriever == null) {
+            return 0;
+        }
+        try {
+            String width = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
+            String height = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+            if (width != null && height != null) {
+                return DecodeBudget.bitmapBytes(Integer.parseInt(width), Integer.parseInt(height), 1);
+            }
+        } catch (RuntimeException ignored) {} finally {
+            recycle(key, retriever);
+        }
+        return DecodeBudget.bitmapBytes(FALLBACK_FRAME_WIDTH, FALLBACK_FRAME_HEIGHT, 1);
+    }
+
+    synchronized void clear() {
+        for (Deque<MediaMetadataRetriever> deque : idle.values()) {
+            for (MediaMetadataRetriever retriever : deque) {
+                releaseQuietly(retriever);
+            }
+        }
+        idle.clear();
+    }
+
+    @Nullable
+    private MediaMetadataRetriever acquire(String key, Source source) {
+        synchronized (this) {
+            Deque<MediaMetadataRetriever> deque = idle.get(key);
+            if (deque != null && !deque.isEmpty()) {
+                return deque.pop();
+            }
+        }
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            if (source.file != null) {
+                retriever.setDataSource(source.file.getAbsolutePath());
+            } else {
+                retriever.setDataSource(context, source.uri);
+            }
+            return retriever;
+        } catch (RuntimeException ex) {
+            Logger.debug("PhotoLibrary", "Unable to open video: " + ex.getMessage());
+            releaseQuietly(retriever);
+            return null;
+        }
+    }
+
+    private synchronized void recycle(String key, MediaMetadataRetriever retriever) {
+        Deque<MediaMetadataRetriever> deque = idle.get(key);
+        if (deque == null) {
+            deque = new ArrayDeque<>();
+            idle.put(key, deque);
+        }
+        if (deque.size() >= MAX_RETRIEVERS_PER_ASSET) {
+            releaseQuietly(retriever);
+        } else {
+            deque.push(retriever);
+        }
+
+        Iterator<Map.Entry<String, Deque<MediaMetadataRetriever>>> iterator = idle.entrySet().iterator();
+        while (idle.size() > MAX_POOLED_ASSETS && iterator.hasNext()) {
+            Map.Entry<String, Deque<MediaMetadataRetriever>> eldest = iterator.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            for (MediaMetadataRetriever stale : eldest.getValue()) {
+                releaseQuietly(stale);
+            }
+            iterator.remove();
+        }
+    }
+
+    @Nullable
+    private Bitmap decodeFrame(MediaMetadataRetriever retriever, long timeUs, int width, int height, boolean exact) {
+        int option = exact ? MediaMetadataRetriever.OPTION_CLOSEST : MediaMetadataRetriever.OPTION_CLOSEST_SYNC;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            return retriever.getScaledFrameAtTime(timeUs, option, width, height);
+        }
+
+        Bitmap frame = retriever.getFrameAtTime(timeUs, option);
+        if (frame == null) {
+            return null;
+        }
+        float scale = Math.min((float) width / frame.getWidth(), (float) height / frame.getHeight());
+        if (scale >= 1f) {
+            return frame;
+        }
+        int targetWidth = Math.max(1, Math.round(frame.getWidth() * scale));
+        int targetHeight = Math.max(1, Math.round(frame.getHeight() * scale));
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, targetWidth, targetHeight, true);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        return scaled;
+    }
+
+    private static void releaseQuietly(MediaMetadataRetriever retriever) {
+        try {
+            retriever.release();
+        } catch (Exception ignored) {}
+    }
+
+    static final class Source {
+
+        @Nullable
+        final Uri uri;
+
+        @Nullable
+        final File file;
+
+        private Source(@Nullable Uri uri, @Nullable File file) {
+            this.uri = uri;
+            this.file = file;
+        }
+
+        static Source of(Uri uri) {
+            return new Source(uri, null);
+        }
+
+        static Source of(File file) {
+            return new Source(null, file);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package app.capgo.plugin.photo_library;
+
+import com.getcapacitor.PluginCall;
+
+final class VideoFrameOptions {
+
+    static final int MAX_FRAME_COUNT = 60;
+
+    final String id;
+    final double time;
+    final int count;
+    final int width;
+    final int height;
+    final double quality;
+
+    private VideoFrameOptions(String id, double time, int count, int width, int height, double quality) {
+        this.id = id;
+        this.time = time;
+        this.count = count;
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+    }
+
+    static VideoFrameOptions fromCall(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'id' is required");
+        }
+
+        double time = call.getDouble("time", 0.0);
+        if (time < 0) {
+            throw new IllegalArgumentException("time must be greater than or equal to 0");
+        }
+
+        int count = call.getInt("count", 1);
+        if (count < 1 || count > MAX_FRAME_COUNT) {
+            throw new IllegalArgumentException("count must be between 1 and " + MAX_FRAME_COUNT);
+        }
+
+        int width = call.getInt("width", PhotoLibraryDefaults.THUMBNAIL_WIDTH);
+        int height = call.getInt("height", PhotoLibraryDefaults.THUMBNAIL_HEIGHT);
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width and height must be greater than 0");
+        }
+
+        Double qualityOption = call.getDouble("quality");
+        double quality = qualityOption != null ? qualityOption : PhotoLibraryDefaults.THUMBNAIL_QUALITY;
+        quality = Math.max(0.0, Math.min(1.0, quality));
+
+        return new VideoFrameOptions(id, time, count, width, height, quality);
+    }
+}
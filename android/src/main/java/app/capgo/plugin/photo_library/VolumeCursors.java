@@ -0,0 +1,116 @@
+package app.capgo.plugin.photo_library;
+
+import android.database.Cursor;
+import androidx.annotation.Nullable;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** K-way merge of per-volume cursors, each sorted by the same key and then {@code _id}. */
+final class VolumeCursors implements Closeable {
+
+    private final List<Cursor> cursors = new ArrayList<>();
+    private final PriorityQueue<Cursor> heads;
+
+    @Nullable
+    private Cursor current;
+
+    VolumeCursors(List<Cursor> volumeCursors, GetLibraryOptions.SortKey sortBy, boolean ascending) {
+        boolean textual = sortBy == GetLibraryOptions.SortKey.FILE_NAME;
+        Comparator<Cursor> order = (a, b) -> {
+            int result = textual ? compareText(a, b, sortBy.column) : compareNumbers(sortValue(a, sortBy), sortValue(b, sortBy));
+            if (result == 0) {
+                result = compareNumbers(sortValue(a, "_id"), sortValue(b, "_id"));
+            }
+            return ascending ? result : -result;
+        };
+        heads = new PriorityQueue<>(Math.max(1, volumeCursors.size()), order);
+        for (Cursor cursor : volumeCursors) {
+            if (cursor == null) {
+                continue;
+            }
+            cursors.add(cursor);
+            if (cursor.moveToFirst()) {
+                heads.add(cursor);
+            }
+        }
+    }
+
+    boolean moveToNext() {
+        if (current != null && current.moveToNext()) {
+            heads.add(current);
+        }
+        current = heads.poll();
+        return current != null;
+    }
+
+    Cursor current() {
+        return current;
+    }
+
+    @Override
+    public void close() {
+        for (Cursor cursor : cursors) {
+            cursor.close();
+        }
+        cursors.clear();
+        heads.clear();
+        current = null;
+    }
+
+    /** Value of the current row for {@link GetLibraryOptions.SortKey#orderBy()}, or {@code null} for SQL NULL. */
+    @Nullable
+    static Long sortValue(Cursor cursor, GetLibraryOptions.SortKey sortBy) {
+        Long value = sortValue(cursor, sortBy.column);
+        if (sortBy.fallbackColumn == null || (value != null && value > 0)) {
+            return value;
+        }
+        Long fallback = sortValue(cursor, sortBy.fallbackColumn);
+        return fallback != null ? fallback * 1000 : null;
+    }
+
+    @Nullable
+    private static Long sortValue(Cursor cursor, String column) {
+        int index = cursor.getColumnIndexOrThrow(column);
+        return cursor.isNull(index) ? null : cursor.getLong(index);
+    }
+
+    // SQLite orders NULL before any value, so nulls compare lowest in both helpers.
+
+    private static int compareNumbers(@Nullable Long a, @Nullable Long b) {
+        if (a == null || b == null) {
+            return Boolean.compare(a != null, b != null);
+        }
+        return Long.compare(a, b);
+    }
+
+    private static int compareText(Cursor a, Cursor b, String column) {
+        String valueA = a.getString(a.getColumnIndexOrThrow(column));
+        String valueB = b.getString(b.getColumnIndexOrThrow(column));
+        if (valueA == null || valueB == null) {
+            return Boolean.compare(valueA != null, valueB != null);
+        }
+        return compareCodePoints(valueA, valueB);
+    }
+
+    /**
+     * SQLite's BINARY collation compares UTF-8 bytes, which order like code points. UTF-16 order
+     * differs: supplementary characters are surrogate pairs, which sort below U+E000-U+FFFF.
+     */
+    static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(j);
+            if (codePointA != codePointB) {
+                return Integer.compare(codePointA, codePointB);
+            }
+            i += Character.charCount(codePointA);
+            j += Character.charCount(codePointB);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+}
@@ -0,0 +1,246 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.*;
+
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CallLoadTest {
+
+    private static final int CALL_THREADS = 4;
+    private static final int CALLERS = 8;
+    private static final int CALLS_PER_CALLER = 150;
+    private static final int ASSETS = 300;
+
+    private File root;
+    private File thumbnails;
+    private File files;
+    private ThumbnailPack pack;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("call-load").toFile();
+        thumbnails = new File(root, "thumbnails");
+        files = new File(root, "files");
+        assertTrue(thumbnails.mkdirs());
+        assertTrue(files.mkdirs());
+        pack = new ThumbnailPack(new File(root, "pack"));
+    }
+
+    @After
+    public void tearDown() {
+        pack.close();
+        deleteRecursively(root);
+    }
+
+    @Test
+    public void concurrentCallsNeverExposePartialOrCorruptThumbnails() throws Exception {
+        CallStats stats = new CallStats();
+        ExecutorService callExecutor = Executors.newFixedThreadPool(CALL_THREADS);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger completed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(CALLERS * CALLS_PER_CALLER);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<String> scanProblems = new ArrayList<>();
+        AtomicInteger scans = new AtomicInteger();
+        Thread scanner = new Thread(() -> {
+            while (running.get()) {
+                scanProblems.addAll(problems(verify()));
+                scans.incrementAndGet();
+            }
+        });
+        scanner.start();
+
+        List<Thread> callers = new ArrayList<>();
+        for (int c = 0; c < CALLERS; c++) {
+            long seed = c;
+            Thread caller = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < CALLS_PER_CALLER; i++) {
+                    int asset = random.nextInt(ASSETS);
+                    // Pages overlap across callers, so the same thumbnail is requested concurrently.
+                    callExecutor.execute(
+                        stats.timed(
+                            "getThumbnailUrl",
+                            () -> {
+                                try {
+                                    requestThumbnail(asset);
+                                    completed.incrementAndGet();
+                                } catch (Throwable ex) {
+                                    failure.compareAndSet(null, ex);
+                                } finally {
+                                    done.countDown();
+                                }
+                            },
+                            pack::flush
+                        )
+                    );
+                }
+            });
+            callers.add(caller);
+            caller.start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        assertTrue("calls did not finish", done.await(60, TimeUnit.SECONDS));
+        callExecutor.shutdown();
+        assertTrue(callExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        running.set(false);
+        scanner.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(CALLERS * CALLS_PER_CALLER, completed.get());
+        assertTrue(scans.get() > 0);
+        assertEquals(new ArrayList<String>(), scanProblems);
+
+        JSONObject summary = stats.snapshot().getJSONObject("getThumbnailUrl");
+        assertEquals(CALLERS * CALLS_PER_CALLER, summary.getLong("count"));
+        assertTrue(summary.getDouble("runP99") >= summary.getDouble("runP50"));
+        assertTrue(summary.getDouble("queueWaitP99") >= summary.getDouble("queueWaitP50"));
+
+        JSObject report = verify();
+        assertEquals(new ArrayList<String>(), problems(report));
+        int stored = pack.size();
+        int loose = new File(files, "original.jpg").exists() ? 1 : 0;
+        assertEquals(stored + loose, report.getInteger("checkedFiles").intValue());
+
+        // Everything written under load was committed by the per-call flush and survives a reopen.
+        pack.close();
+        pack = new ThumbnailPack(new File(root, "pack"));
+        assertEquals(stored, pack.size());
+        assertTrue(pack.corruptEntries().isEmpty());
+        for (int asset = 0; asset < ASSETS; asset++) {
+            String name = thumbnailName(asset);
+            if (pack.contains(name)) {
+                assertArrayEquals(name, jpeg(asset), read(pack.locate(name)));
+            }
+        }
+    }
+
+    @Test
+    public void verifyReportsLeftoversAndTruncatedImages() throws Exception {
+        Files.write(new File(thumbnails, "a_1x1_q80.jpg.part").toPath(), jpeg(1));
+        byte[] truncated = jpeg(2);
+        Files.write(new File(thumbnails, "b_1x1_q80.jpg").toPath(), Arrays.copyOf(truncated, truncated.length - 1));
+        Files.write(new File(thumbnails, "c_1x1_q80.jpg").toPath(), new byte[0]);
+        // Copied originals are not required to be JPEGs.
+        Files.write(new File(files, "original.jpg").toPath(), new byte[] { 1, 2, 3 });
+        pack.put("d_1x1_q80.jpg", jpeg(3));
+        pack.flush();
+
+        JSObject report = verify();
+
+        assertEquals(4, report.getInteger("checkedFiles").intValue());
+        JSONArray partial = report.getJSONArray("partialFiles");
+        assertEquals(1, partial.length());
+        assertTrue(partial.getString(0).endsWith("a_1x1_q80.jpg.part"));
+        JSONArray corrupt = report.getJSONArray("corruptFiles");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < corrupt.length(); i++) {
+            names.add(new File(corrupt.getString(i)).getName());
+        }
+        names.sort(null);
+        assertEquals(Arrays.asList("b_1x1_q80.jpg", "c_1x1_q80.jpg"), names);
+    }
+
+    /** Stands in for the thumbnail path of a plugin call: reuse the stored thumbnail or encode and store it. */
+    private void requestThumbnail(int asset) throws IOException {
+        String name = thumbnailName(asset);
+        if (!pack.contains(name)) {
+            pack.put(name, jpeg(asset));
+        }
+        ThumbnailStore.Location location = pack.locate(name);
+        assertNotNull(name, location);
+        assertArrayEquals(name, jpeg(asset), read(location));
+        if (asset == 0) {
+            // A loose file written the way full renditions are: through a .part file that is renamed.
+            File target = new File(files, "original.jpg");
+            File partial = new File(files, "original.jpg." + Thread.currentThread().getId() + ".part");
+            Files.write(partial.toPath(), jpeg(asset));
+            assertTrue(partial.renameTo(target));
+        }
+    }
+
+    private JSObject verify() {
+        return CacheVerifier.verify(new File[] { thumbnails, files }, files, pack, CacheVerifier::isComplete);
+    }
+
+    /** Partial files other than in-flight renames of the original, and every corrupt entry. */
+    private static List<String> problems(JSObject report) {
+        List<String> problems = new ArrayList<>();
+        try {
+            JSONArray partial = report.getJSONArray("partialFiles");
+            for (int i = 0; i < partial.length(); i++) {
+                String path = partial.getString(i);
+                if (!new File(path).getName().startsWith("original.jpg.")) {
+                    problems.add(path);
+                }
+            }
+            JSONArray corrupt = report.getJSONArray("corruptFiles");
+            for (int i = 0; i < corrupt.length(); i++) {
+                problems.add(corrupt.getString(i));
+            }
+        } catch (Exception ex) {
+            problems.add(ex.toString());
+        }
+        return problems;
+    }
+
+    private static String thumbnailName(int asset) {
+        return String.format(Locale.US, "%08x_256x256_q80.jpg", asset);
+    }
+
+    private static byte[] read(ThumbnailStore.Location location) throws IOException {
+        byte[] bytes = new byte[(int) location.length];
+        try (RandomAccessFile file = new RandomAccessFile(location.file, "r")) {
+            file.seek(location.offset);
+            file.readFully(bytes);
+        }
+        return bytes;
+    }
+
+    /** Random bytes ending in the JPEG end-of-image marker. */
+    private static byte[] jpeg(long seed) {
+        Random random = new Random(seed);
+        byte[] bytes = new byte[2000 + random.nextInt(6000)];
+        random.nextBytes(bytes);
+        bytes[bytes.length - 2] = (byte) 0xFF;
+        bytes[bytes.length - 1] = (byte) 0xD9;
+        return bytes;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
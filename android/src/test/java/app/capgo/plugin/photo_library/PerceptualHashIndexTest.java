@@ -0,0 +1,58 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class PerceptualHashIndexTest {
+
+    @Test
+    public void chainedNeighboursStayWithinDistanceOfTheAnchor() {
+        // 1 ~ 2 and 2 ~ 3, but 1 and 3 are 8 bits apart.
+        PerceptualHashIndex index = index(new long[] { 1, 2, 3 }, new long[] { 0L, 0xFL, 0xFFL });
+
+        List<long[]> groups = index.groups(4);
+
+        assertEquals(1, groups.size());
+        assertArrayEquals(new long[] { 1, 2 }, groups.get(0));
+    }
+
+    @Test
+    public void findsMatchesSpreadOverEveryChunk() {
+        long base = 0x0123_4567_89AB_CDEFL;
+        // Two flipped bits in each 16-bit chunk: no chunk matches exactly.
+        long spread = base ^ 0x0003_0003_0003_0003L;
+        long far = base ^ 0x0700_0700_0700_0000L;
+        PerceptualHashIndex index = index(new long[] { 10, 20, 30, 40 }, new long[] { base, spread, far, ~base });
+
+        assertTrue(index.groups(7).isEmpty());
+        List<long[]> groups = index.groups(8);
+        assertEquals(1, groups.size());
+        assertArrayEquals(new long[] { 10, 20 }, groups.get(0));
+        assertEquals(1, index.groups(PerceptualHashIndex.MAX_DISTANCE).size());
+    }
+
+    @Test
+    public void identicalHashesFormOneGroupInIdOrder() {
+        PerceptualHashIndex index = index(new long[] { 5, 6, 7, 8, 9 }, new long[] { 42L, -1L, 42L, 43L, 42L });
+
+        List<long[]> groups = index.groups(0);
+
+        assertEquals(1, groups.size());
+        assertArrayEquals(new long[] { 5, 7, 9 }, groups.get(0));
+    }
+
+    private static PerceptualHashIndex index(long[] ids, long[] hashes) {
+        PerceptualHashIndex index = new PerceptualHashIndex(new File("unused"));
+        Map<Long, Long> computed = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            computed.put(ids[i], hashes[i]);
+        }
+        index.update(ids, new long[ids.length], computed);
+        return index;
+    }
+}
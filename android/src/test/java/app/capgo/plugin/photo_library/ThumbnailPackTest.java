@@ -0,0 +1,250 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThumbnailPackTest {
+
+    private static final int RECORD_SIZE = 128;
+    private static final String[] NAMES = { "a_1x1_q80.jpg", "b_1x1_q80.jpg", "c_1x1_q80.jpg" };
+
+    private File directory;
+    private byte[][] contents;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("thumbnail-pack").toFile();
+        contents = new byte[][] { jpeg(1000, 1), jpeg(2500, 2), jpeg(700, 3) };
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void reopenKeepsCommittedEntries() throws Exception {
+        writeAll();
+        ThumbnailPack pack = new ThumbnailPack(directory);
+        assertSurvivors(pack, 3);
+        assertTrue(pack.corruptEntries().isEmpty());
+        pack.close();
+    }
+
+    @Test
+    public void truncatedDataKeepsEntriesBeforeTheCut() throws Exception {
+        long[] ends = writeAll();
+        for (int i = 0; i < NAMES.length; i++) {
+            long start = i == 0 ? 0 : ends[i - 1];
+            for (long cut : new long[] { start, start + 1, ends[i] - 1 }) {
+                tearDown();
+                setUp();
+                writeAll();
+                truncate(dataFile(), cut);
+                ThumbnailPack pack = new ThumbnailPack(directory);
+                assertSurvivors(pack, i);
+                assertEquals(start, dataFile().length());
+                pack.close();
+            }
+            tearDown();
+            setUp();
+            writeAll();
+            truncate(dataFile(), ends[i]);
+            ThumbnailPack pack = new ThumbnailPack(directory);
+            assertSurvivors(pack, i + 1);
+            pack.close();
+        }
+    }
+
+    @Test
+    public void tornIndexKeepsRecordsBeforeTheTear() throws Exception {
+        long[] ends = writeAll();
+        for (int kept = 0; kept <= NAMES.length; kept++) {
+            for (int torn : new int[] { 0, 1, RECORD_SIZE / 2, RECORD_SIZE - 1 }) {
+                if (kept == NAMES.length && torn > 0) {
+                    continue;
+                }
+                tearDown();
+                setUp();
+                writeAll();
+                truncate(indexFile(), (long) kept * RECORD_SIZE + torn);
+                ThumbnailPack pack = new ThumbnailPack(directory);
+                assertSurvivors(pack, kept);
+                assertEquals("uncommitted data is dropped", kept == 0 ? 0 : ends[kept - 1], dataFile().length());
+                assertEquals((long) kept * RECORD_SIZE, indexFile().length());
+                pack.close();
+            }
+        }
+    }
+
+    @Test
+    public void corruptRecordEndsReplay() throws Exception {
+        for (int corrupt = 0; corrupt < NAMES.length; corrupt++) {
+            tearDown();
+            setUp();
+            writeAll();
+            try (RandomAccessFile file = new RandomAccessFile(indexFile(), "rw")) {
+                long position = (long) corrupt * RECORD_SIZE + 10;
+                file.seek(position);
+                int value = file.read();
+                file.seek(position);
+                file.write(value ^ 0xFF);
+            }
+            ThumbnailPack pack = new ThumbnailPack(directory);
+            assertSurvivors(pack, corrupt);
+            pack.close();
+        }
+    }
+
+    @Test
+    public void unflushedEntriesAreDroppedOnReopen() throws Exception {
+        long[] ends = writeAll();
+        ThumbnailPack crashed = new ThumbnailPack(directory);
+        crashed.put("d_1x1_q80.jpg", jpeg(900, 4));
+        assertTrue(crashed.contains("d_1x1_q80.jpg"));
+
+        ThumbnailPack pack = new ThumbnailPack(directory);
+        assertSurvivors(pack, 3);
+        assertFalse(pack.contains("d_1x1_q80.jpg"));
+        assertEquals(ends[2], dataFile().length());
+        pack.close();
+    }
+
+    @Test
+    public void removedEntriesStayRemoved() throws Exception {
+        writeAll();
+        ThumbnailPack pack = new ThumbnailPack(directory);
+        pack.removeAsset("b");
+        pack.close();
+
+        pack = new ThumbnailPack(directory);
+        assertTrue(pack.contains(NAMES[0]));
+        assertFalse(pack.contains(NAMES[1]));
+        assertTrue(pack.contains(NAMES[2]));
+        pack.close();
+    }
+
+    @Test
+    public void compactionSwitchesGenerationAndKeepsLiveEntries() throws Exception {
+        ThumbnailPack pack = new ThumbnailPack(directory);
+        byte[] latest = null;
+        for (int i = 0; i < 10; i++) {
+            latest = jpeg(1024 * 1024, 10 + i);
+            pack.put(NAMES[0], latest);
+            pack.flush();
+        }
+        pack.put(NAMES[1], contents[1]);
+        long generation = pack.generation();
+        pack.close();
+
+        pack = new ThumbnailPack(directory);
+        assertEquals(generation + 1, pack.generation());
+        assertArrayEquals(latest, read(pack, NAMES[0]));
+        assertArrayEquals(contents[1], read(pack, NAMES[1]));
+        assertEquals(latest.length + contents[1].length, pack.dataFile().length());
+        assertFalse(new File(directory, "data-" + generation + ".pack").exists());
+        assertFalse(new File(directory, "index-" + generation + ".idx").exists());
+        pack.close();
+
+        pack = new ThumbnailPack(directory);
+        assertEquals("a compacted pack is reopened as is", generation + 1, pack.generation());
+        assertArrayEquals(latest, read(pack, NAMES[0]));
+        pack.close();
+    }
+
+    @Test
+    public void interruptedCompactionIsDiscarded() throws Exception {
+        writeAll();
+        File partialData = new File(directory, "data-1.pack");
+        File partialIndex = new File(directory, "index-1.idx");
+        Files.write(partialData.toPath(), new byte[4096]);
+        Files.write(partialIndex.toPath(), new byte[RECORD_SIZE + 5]);
+
+        ThumbnailPack pack = new ThumbnailPack(directory);
+        assertEquals(0, pack.generation());
+        assertSurvivors(pack, 3);
+        assertFalse(partialData.exists());
+        assertFalse(partialIndex.exists());
+        pack.close();
+    }
+
+    /** Writes every entry in its own commit and returns the end offset of each. */
+    private long[] writeAll() throws IOException {
+        ThumbnailPack pack = new ThumbnailPack(directory);
+        long[] ends = new long[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            pack.put(NAMES[i], contents[i]);
+            pack.flush();
+            ThumbnailStore.Location location = pack.locate(NAMES[i]);
+            assertNotNull(location);
+            ends[i] = location.offset + location.length;
+        }
+        pack.close();
+        return ends;
+    }
+
+    private void assertSurvivors(ThumbnailPack pack, int count) throws IOException {
+        assertEquals(count, pack.size());
+        for (int i = 0; i < NAMES.length; i++) {
+            if (i < count) {
+                assertArrayEquals(NAMES[i], contents[i], read(pack, NAMES[i]));
+            } else {
+                assertFalse(NAMES[i], pack.contains(NAMES[i]));
+            }
+        }
+    }
+
+    private static byte[] read(ThumbnailPack pack, String name) throws IOException {
+        ThumbnailStore.Location location = pack.locate(name);
+        assertNotNull(name, location);
+        assertTrue(location.packed);
+        byte[] bytes = new byte[(int) location.length];
+        try (RandomAccessFile file = new RandomAccessFile(location.file, "r")) {
+            file.seek(location.offset);
+            file.readFully(bytes);
+        }
+        return bytes;
+    }
+
+    private File dataFile() {
+        return new File(directory, "data-0.pack");
+    }
+
+    private File indexFile() {
+        return new File(directory, "index-0.idx");
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length);
+        }
+    }
+
+    /** Random bytes ending in the JPEG end-of-image marker. */
+    private static byte[] jpeg(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        bytes[length - 2] = (byte) 0xFF;
+        bytes[length - 1] = (byte) 0xD9;
+        return bytes;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,325 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.*;
+
+import com.getcapacitor.JSObject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UploadQueueTest {
+
+    private static final int CHUNK_SIZE = UploadOptions.MIN_CHUNK_SIZE;
+    private static final UploadQueue.Source SOURCE = new UploadQueue.Source(null, "photo.jpg", "image/jpeg");
+
+    private File file;
+    private byte[] content;
+    private LoopbackServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[CHUNK_SIZE * 2 + 90_000];
+        new Random(7).nextBytes(content);
+        file = File.createTempFile("upload", ".jpg");
+        Files.write(file.toPath(), content);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void multipartUploadWrapsTheFileInAForm() throws Exception {
+        server = new LoopbackServer(request -> new Reply(201, Collections.emptyMap(), "created"));
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("album", "holidays");
+        Map<String, String> headers = Collections.singletonMap("Authorization", "Bearer token");
+
+        JSObject event = upload(wholeFile(), options(headers, parameters, true, 0));
+
+        assertEquals("completed", event.getString("state"));
+        assertEquals(Integer.valueOf(201), event.getInteger("statusCode"));
+        assertEquals("created", event.getString("responseBody"));
+        assertEquals(1, server.requests.size());
+        Request request = server.requests.get(0);
+        assertEquals("POST", request.method);
+        assertEquals("Bearer token", request.headers.get("authorization"));
+        String contentType = request.headers.get("content-type");
+        assertTrue(contentType, contentType.startsWith("multipart/form-data; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        String preamble =
+            "--" +
+            boundary +
+            "\r\nContent-Disposition: form-data; name=\"album\"\r\n\r\nholidays\r\n--" +
+            boundary +
+            "\r\nContent-Disposition: form-data; name=\"upload\"; filename=\"photo.jpg\"\r\nContent-Type: image/jpeg\r\n\r\n";
+        expected.write(preamble.getBytes(StandardCharsets.UTF_8));
+        expected.write(content);
+        expected.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(expected.toByteArray(), request.body);
+    }
+
+    @Test
+    public void binaryUploadSendsTheSliceOfTheSource() throws Exception {
+        server = new LoopbackServer(request -> new Reply(200, Collections.emptyMap(), ""));
+        long offset = 1000;
+        long length = content.length - 3000;
+        UploadQueue.Opener slice = source -> new UploadQueue.Body(new FileInputStream(file), offset, length, null);
+
+        JSObject event = upload(slice, options(Collections.emptyMap(), Collections.emptyMap(), false, 0));
+
+        assertEquals("completed", event.getString("state"));
+        assertEquals(length, event.optLong("bytesSent"));
+        Request request = server.requests.get(0);
+        assertEquals("image/jpeg", request.headers.get("content-type"));
+        assertNull(request.headers.get("content-range"));
+        byte[] expected = new byte[(int) length];
+        System.arraycopy(content, (int) offset, expected, 0, expected.length);
+        assertArrayEquals(expected, request.body);
+    }
+
+    @Test
+    public void rangedUploadSendsConsecutiveContentRanges() throws Exception {
+        RangedReceiver receiver = new RangedReceiver(content.length);
+        server = new LoopbackServer(receiver);
+
+        JSObject event = upload(wholeFile(), options(Collections.emptyMap(), Collections.emptyMap(), false, CHUNK_SIZE));
+
+        assertEquals("completed", event.getString("state"));
+        assertEquals(content.length, event.optLong("bytesSent"));
+        List<String> ranges = new ArrayList<>();
+        for (Request request : server.requests) {
+            ranges.add(request.headers.get("content-range"));
+        }
+        int total = content.length;
+        List<String> expected = new ArrayList<>();
+        expected.add("bytes 0-" + (CHUNK_SIZE - 1) + "/" + total);
+        expected.add("bytes " + CHUNK_SIZE + "-" + (2 * CHUNK_SIZE - 1) + "/" + total);
+        expected.add("bytes " + 2 * CHUNK_SIZE + "-" + (total - 1) + "/" + total);
+        assertEquals(expected, ranges);
+        assertArrayEquals(content, receiver.received);
+    }
+
+    @Test
+    public void rangedUploadResumesFromTheAcknowledgedByte() throws Exception {
+        RangedReceiver receiver = new RangedReceiver(content.length) {
+            @Override
+            public Reply handle(Request request) {
+                long start = rangeStart(request);
+                if (server.requests.size() == 1) {
+                    // Only part of the first range is kept.
+                    System.arraycopy(request.body, 0, received, 0, 100_000);
+                    return new Reply(308, Collections.singletonMap("Range", "bytes=0-99999"), "");
+                }
+                if (server.requests.size() == 2) {
+                    // Everything is lost: a 308 without Range acknowledges no bytes.
+                    assertEquals(100_000, start);
+                    received = new byte[received.length];
+                    return new Reply(308, Collections.emptyMap(), "");
+                }
+                return super.handle(request);
+            }
+        };
+        server = new LoopbackServer(receiver);
+
+        JSObject event = upload(wholeFile(), options(Collections.emptyMap(), Collections.emptyMap(), false, CHUNK_SIZE));
+
+        assertEquals("completed", event.getString("state"));
+        assertEquals(Integer.valueOf(1), event.getInteger("attempt"));
+        List<Long> starts = new ArrayList<>();
+        for (Request request : server.requests) {
+            starts.add(rangeStart(request));
+        }
+        List<Long> expected = new ArrayList<>();
+        Collections.addAll(expected, 0L, 100_000L, 0L, (long) CHUNK_SIZE, 2L * CHUNK_SIZE);
+        assertEquals(expected, starts);
+        assertArrayEquals(content, receiver.received);
+    }
+
+    private UploadQueue.Opener wholeFile() {
+        return source -> new UploadQueue.Body(new FileInputStream(file), 0, file.length(), null);
+    }
+
+    private UploadOptions options(Map<String, String> headers, Map<String, String> parameters, boolean multipart, long chunkSize) {
+        String method = multipart ? "POST" : "PUT";
+        return new UploadOptions("asset", "task", server.url(), method, headers, parameters, "upload", multipart, chunkSize, 3);
+    }
+
+    /** Runs the upload and returns its final progress event. */
+    private static JSObject upload(UploadQueue.Opener opener, UploadOptions options) throws InterruptedException {
+        UploadQueue queue = new UploadQueue(opener, 1);
+        BlockingQueue<JSObject> events = new LinkedBlockingQueue<>();
+        queue.setListener((name, data) -> events.add(data));
+        queue.enqueue(options, SOURCE);
+        while (true) {
+            JSObject event = events.poll(30, TimeUnit.SECONDS);
+            assertNotNull("upload did not finish", event);
+            String state = event.getString("state");
+            if (!state.equals("queued") && !state.equals("running") && !state.equals("retrying")) {
+                return event;
+            }
+        }
+    }
+
+    private static long rangeStart(Request request) {
+        String range = request.headers.get("content-range");
+        return Long.parseLong(range.substring("bytes ".length(), range.indexOf('-')));
+    }
+
+    /** Stores each range where its Content-Range says and acknowledges everything received so far. */
+    private static class RangedReceiver implements Handler {
+
+        byte[] received;
+
+        RangedReceiver(int length) {
+            received = new byte[length];
+        }
+
+        @Override
+        public Reply handle(Request request) {
+            String range = request.headers.get("content-range");
+            int start = (int) rangeStart(request);
+            int total = Integer.parseInt(range.substring(range.indexOf('/') + 1));
+            System.arraycopy(request.body, 0, received, start, request.body.length);
+            int end = start + request.body.length;
+            if (end < total) {
+                return new Reply(308, Collections.singletonMap("Range", "bytes=0-" + (end - 1)), "");
+            }
+            return new Reply(200, Collections.emptyMap(), "done");
+        }
+    }
+
+    private interface Handler {
+        Reply handle(Request request);
+    }
+
+    private static final class Request {
+
+        final String method;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Request(String method, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private static final class Reply {
+
+        final int status;
+        final Map<String, String> headers;
+        final String body;
+
+        Reply(int status, Map<String, String> headers, String body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /** HTTP/1.1 server on the loopback interface answering one request per connection. */
+    private static final class LoopbackServer implements AutoCloseable {
+
+        final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+        private final ServerSocket socket;
+        private final Thread thread;
+
+        LoopbackServer(Handler handler) throws IOException {
+            socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            thread = new Thread(() -> {
+                while (!socket.isClosed()) {
+                    try (Socket connection = socket.accept()) {
+                        Request request = read(connection.getInputStream());
+                        requests.add(request);
+                        write(connection.getOutputStream(), handler.handle(request));
+                    } catch (IOException ignored) {}
+                }
+            });
+            thread.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + socket.getLocalPort() + "/upload";
+        }
+
+        @Override
+        public void close() throws Exception {
+            socket.close();
+            thread.join(5000);
+        }
+
+        private static Request read(InputStream in) throws IOException {
+            String method = readLine(in).split(" ")[0];
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+            byte[] body = new byte[Integer.parseInt(headers.getOrDefault("content-length", "0"))];
+            int read = 0;
+            while (read < body.length) {
+                int count = in.read(body, read, body.length - read);
+                if (count < 0) {
+                    throw new IOException("Request body ended early");
+                }
+                read += count;
+            }
+            return new Request(method, headers, body);
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int value;
+            while ((value = in.read()) != -1 && value != '\n') {
+                if (value != '\r') {
+                    line.write(value);
+                }
+            }
+            return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+        }
+
+        private static void write(OutputStream out, Reply reply) throws IOException {
+            byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+            StringBuilder head = new StringBuilder("HTTP/1.1 ").append(reply.status).append(" Status\r\n");
+            for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(body.length).append("\r\nConnection: close\r\n\r\n");
+            out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package app.capgo.plugin.photo_library;
+
+import static org.junit.Assert.*;
+
+import android.database.Cursor;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class VolumeCursorsTest {
+
+    private static final String SMILE = "\uD83D\uDE00.jpg"; // U+1F600
+    private static final String TILDE = "\uFF5E.jpg"; // U+FF5E
+
+    @Test
+    public void codePointOrderMatchesUtf8Bytes() {
+        assertTrue(VolumeCursors.compareCodePoints(TILDE, SMILE) < 0);
+        assertTrue(TILDE.compareTo(SMILE) > 0);
+        assertTrue(VolumeCursors.compareCodePoints("a.jpg", "b.jpg") < 0);
+        assertTrue(VolumeCursors.compareCodePoints("a", "a.jpg") < 0);
+        assertEquals(0, VolumeCursors.compareCodePoints(SMILE, SMILE));
+    }
+
+    @Test
+    public void mergesFileNamesInSqliteOrder() {
+        // Each volume is sorted the way SQLite returns it: by UTF-8 bytes, then _id.
+        Cursor primary = cursor(new String[] { "_display_name" }, new Object[][] { { null, 9 }, { "a.jpg", 1 }, { TILDE, 4 }, { SMILE, 2 } });
+        Cursor card = cursor(new String[] { "_display_name" }, new Object[][] { { "a.jpg", 3 }, { "b.jpg", 5 }, { SMILE, 6 } });
+
+        assertEquals(
+            Arrays.asList(9L, 1L, 3L, 5L, 4L, 2L, 6L),
+            ids(new VolumeCursors(Arrays.asList(primary, card), GetLibraryOptions.SortKey.FILE_NAME, true))
+        );
+    }
+
+    @Test
+    public void mergesDescendingNumbersWithIdTieBreak() {
+        Cursor primary = cursor(new String[] { "date_added" }, new Object[][] { { 300, 8 }, { 200, 7 }, { 200, 2 }, { null, 5 } });
+        Cursor card = cursor(new String[] { "date_added" }, new Object[][] { { 250, 6 }, { 200, 4 }, { 100, 1 } });
+        Cursor usb = cursor(new String[] { "date_added" }, new Object[][] {});
+
+        assertEquals(
+            Arrays.asList(8L, 6L, 7L, 4L, 2L, 1L, 5L),
+            ids(new VolumeCursors(Arrays.asList(primary, null, card, usb), GetLibraryOptions.SortKey.DATE_ADDED, false))
+        );
+    }
+
+    @Test
+    public void mergesCreationDatesWithTheDateAddedFallback() {
+        // Rows without DATE_TAKEN sort by DATE_ADDED in milliseconds, as the CASE expression does.
+        String[] columns = { "datetaken", "date_added" };
+        Cursor primary = cursor(columns, new Object[][] { { null, null, 7 }, { 0, 150, 2 }, { 200_000L, 100, 1 } });
+        Cursor card = cursor(columns, new Object[][] { { null, 120, 3 }, { 160_000L, 90, 4 }, { null, 300, 5 } });
+
+        assertEquals(
+            Arrays.asList(7L, 3L, 2L, 4L, 1L, 5L),
+            ids(new VolumeCursors(Arrays.asList(primary, card), GetLibraryOptions.SortKey.CREATION_DATE, true))
+        );
+        assertEquals(Long.valueOf(150_000L), VolumeCursors.sortValue(row(columns, 0, 150), GetLibraryOptions.SortKey.CREATION_DATE));
+        assertNull(VolumeCursors.sortValue(row(columns, null, null), GetLibraryOptions.SortKey.CREATION_DATE));
+    }
+
+    private static List<Long> ids(VolumeCursors merged) {
+        List<Long> ids = new ArrayList<>();
+        while (merged.moveToNext()) {
+            ids.add(merged.current().getLong(merged.current().getColumnIndexOrThrow("_id")));
+        }
+        merged.close();
+        return ids;
+    }
+
+    private static Cursor row(String[] columns, Object... values) {
+        Object[] row = Arrays.copyOf(values, values.length + 1);
+        Cursor cursor = cursor(columns, new Object[][] { row });
+        cursor.moveToFirst();
+        return cursor;
+    }
+
+    /** A cursor over {@code rows} of ({@code columns}..., {@code _id}) that supports what the merge reads. */
+    private static Cursor cursor(String[] sortColumns, Object[][] rows) {
+        List<String> columns = new ArrayList<>(Arrays.asList(sortColumns));
+        columns.add("_id");
+        int[] position = { -1 };
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(), new Class<?>[] { Cursor.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "moveToFirst":
+                    position[0] = 0;
+                    return rows.length > 0;
+                case "moveToNext":
+                    position[0]++;
+                    return position[0] < rows.length;
+                case "getColumnIndexOrThrow":
+                    int index = columns.indexOf((String) args[0]);
+                    if (index < 0) {
+                        throw new IllegalArgumentException("No column " + args[0]);
+                    }
+                    return index;
+                case "isNull":
+                    return rows[position[0]][(int) args[0]] == null;
+                case "getLong":
+                    return ((Number) rows[position[0]][(int) args[0]]).longValue();
+                case "getString":
+                    Object value = rows[position[0]][(int) args[0]];
+                    return value != null ? value.toString() : null;
+                case "close":
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
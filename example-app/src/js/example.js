@@ -271,6 +271,161 @@ pickMediaButton?.addEventListener('click', async () => {
   }
 });
 
+const soakWorkersInput = document.getElementById('soakWorkersInput');
+const soakDurationInput = document.getElementById('soakDurationInput');
+const soakPageSizeInput = document.getElementById('soakPageSizeInput');
+const soakButton = document.getElementById('soakButton');
+
+const THUMBNAIL_SIZES = [128, 256, 512];
+
+const percentile = (sorted, fraction) => {
+  if (!sorted.length) return 0;
+  const index = Math.min(sorted.length - 1, Math.max(0, Math.ceil(fraction * sorted.length) - 1));
+  return sorted[index];
+};
+
+const summarize = (samples) => {
+  const summary = {};
+  Object.entries(samples).forEach(([method, values]) => {
+    const sorted = [...values].sort((a, b) => a - b);
+    summary[method] = {
+      count: sorted.length,
+      p50: Number(percentile(sorted, 0.5).toFixed(1)),
+      p99: Number(percentile(sorted, 0.99).toFixed(1)),
+      max: Number((sorted[sorted.length - 1] ?? 0).toFixed(1)),
+    };
+  });
+  return summary;
+};
+
+// One simulated user: mostly scrolls forward a page at a time, sometimes flings several pages,
+// scrolls back or switches grid density, and re-requests a page as a re-render would.
+const runScrollWorker = async (deadline, pageSize, totalCount, record, thumbnails, failures) => {
+  let offset = Math.floor(Math.random() * Math.max(1, totalCount - pageSize));
+  let size = THUMBNAIL_SIZES[1];
+  while (Date.now() < deadline) {
+    const roll = Math.random();
+    if (roll < 0.1) {
+      offset += pageSize * (3 + Math.floor(Math.random() * 3));
+    } else if (roll < 0.2) {
+      offset -= pageSize;
+    } else if (roll < 0.25) {
+      size = THUMBNAIL_SIZES[Math.floor(Math.random() * THUMBNAIL_SIZES.length)];
+    } else {
+      offset += pageSize;
+    }
+    offset = Math.max(0, Math.min(offset, Math.max(0, totalCount - pageSize)));
+
+    const pageOptions = { offset, limit: pageSize, thumbnailWidth: 0, thumbnailHeight: 0, fields: ['type'] };
+    const requests = roll > 0.9 ? 2 : 1;
+    let page;
+    try {
+      const pages = await Promise.all(
+        Array.from({ length: requests }, () => record('getLibrary', () => PhotoLibrary.getLibrary(pageOptions))),
+      );
+      page = pages[0];
+    } catch (error) {
+      failures.push(`getLibrary: ${error instanceof Error ? error.message : String(error)}`);
+      continue;
+    }
+
+    await Promise.all(
+      page.assets.map(async (asset) => {
+        try {
+          const file = await record('getThumbnailUrl', () =>
+            PhotoLibrary.getThumbnailUrl({ id: asset.id, width: size, height: size }),
+          );
+          thumbnails.set(file.path, file);
+        } catch (error) {
+          failures.push(`getThumbnailUrl ${asset.id}: ${error instanceof Error ? error.message : String(error)}`);
+        }
+      }),
+    );
+  }
+};
+
+// Every thumbnail handed out must be readable in full and decode as an image.
+const verifyThumbnails = async (thumbnails) => {
+  const problems = [];
+  await Promise.all(
+    [...thumbnails.values()].map(async (file) => {
+      try {
+        const response = await fetch(file.webPath || Capacitor.convertFileSrc(file.path));
+        const blob = await response.blob();
+        if (blob.size !== file.size) {
+          problems.push(`${file.path}: ${blob.size} bytes read, ${file.size} reported`);
+          return;
+        }
+        const bitmap = await createImageBitmap(blob);
+        bitmap.close();
+      } catch (error) {
+        problems.push(`${file.path}: ${error instanceof Error ? error.message : String(error)}`);
+      }
+    }),
+  );
+  return problems;
+};
+
+soakButton?.addEventListener('click', async () => {
+  const workers = toNumberOrUndefined(soakWorkersInput?.value) ?? 8;
+  const durationSeconds = toNumberOrUndefined(soakDurationInput?.value) ?? 30;
+  const pageSize = toNumberOrUndefined(soakPageSizeInput?.value) ?? 40;
+  const samples = {};
+  const thumbnails = new Map();
+  const failures = [];
+  const record = async (method, invoke) => {
+    const started = performance.now();
+    try {
+      return await invoke();
+    } finally {
+      (samples[method] ??= []).push(performance.now() - started);
+    }
+  };
+
+  try {
+    soakButton.disabled = true;
+    setStatus(`Load test running for ${durationSeconds}s with ${workers} workers...`);
+    await PhotoLibrary.getDiagnostics({ reset: true });
+    const { totalCount } = await PhotoLibrary.getLibrary({
+      limit: 1,
+      thumbnailWidth: 0,
+      thumbnailHeight: 0,
+      fields: [],
+    });
+    const deadline = Date.now() + durationSeconds * 1000;
+    await Promise.all(
+      Array.from({ length: workers }, () =>
+        runScrollWorker(deadline, pageSize, totalCount, record, thumbnails, failures),
+      ),
+    );
+
+    setStatus('Verifying thumbnails and cache...');
+    const thumbnailProblems = await verifyThumbnails(thumbnails);
+    const diagnostics = await PhotoLibrary.getDiagnostics({ verifyCache: true });
+    const cache = diagnostics.cache;
+    const cacheProblems = cache ? cache.partialFiles.length + cache.corruptFiles.length : 0;
+    const passed = failures.length === 0 && thumbnailProblems.length === 0 && cacheProblems === 0;
+
+    setResponse({
+      passed,
+      roundTripMs: summarize(samples),
+      native: diagnostics.calls,
+      decodeMemory: diagnostics.decodeMemory,
+      thumbnailsChecked: thumbnails.size,
+      thumbnailProblems,
+      cache: diagnostics.cache,
+      failures: failures.slice(0, 50),
+    });
+    setStatus(passed ? 'Load test passed' : 'Load test found problems');
+  } catch (error) {
+    const message = error instanceof Error ? error.message : String(error);
+    setResponse({ error: message });
+    setStatus('Load test failed');
+  } finally {
+    soakButton.disabled = false;
+  }
+});
+
 if (Capacitor.isNativePlatform()) {
   CapacitorUpdater.notifyAppReady().catch((error) => {
     console.error('Capgo notifyAppReady failed', error);
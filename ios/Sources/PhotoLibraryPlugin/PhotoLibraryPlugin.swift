@@ -14,8 +14,21 @@ public class PhotoLibraryPlugin: CAPPlugin, CAPBridgedPlugin {
         CAPPluginMethod(name: "getAlbums", returnType: CAPPluginReturnPromise),
         CAPPluginMethod(name: "getLibrary", returnType: CAPPluginReturnPromise),
         CAPPluginMethod(name: "getPhotoUrl", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getImageTile", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "cancelCopy", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "scanLocations", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getLocationClusters", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "findDuplicates", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getAssetDigest", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "enqueueUpload", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "cancelUpload", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getThumbnailAtlas", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getTimelineBuckets", returnType: CAPPluginReturnPromise),
         CAPPluginMethod(name: "getThumbnailUrl", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getThumbnailUrls", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getVideoFrames", returnType: CAPPluginReturnPromise),
         CAPPluginMethod(name: "pickMedia", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getDiagnostics", returnType: CAPPluginReturnPromise),
         CAPPluginMethod(name: "getPluginVersion", returnType: CAPPluginReturnPromise)
     ]
 
@@ -101,6 +114,46 @@ public class PhotoLibraryPlugin: CAPPlugin, CAPBridgedPlugin {
         }
     }
 
+    @objc public func getImageTile(_ call: CAPPluginCall) {
+        call.unimplemented("getImageTile is not implemented on iOS")
+    }
+
+    @objc public func cancelCopy(_ call: CAPPluginCall) {
+        call.unimplemented("cancelCopy is not implemented on iOS")
+    }
+
+    @objc public func scanLocations(_ call: CAPPluginCall) {
+        call.unimplemented("scanLocations is not implemented on iOS")
+    }
+
+    @objc public func getLocationClusters(_ call: CAPPluginCall) {
+        call.unimplemented("getLocationClusters is not implemented on iOS")
+    }
+
+    @objc public func findDuplicates(_ call: CAPPluginCall) {
+        call.unimplemented("findDuplicates is not implemented on iOS")
+    }
+
+    @objc public func getAssetDigest(_ call: CAPPluginCall) {
+        call.unimplemented("getAssetDigest is not implemented on iOS")
+    }
+
+    @objc public func enqueueUpload(_ call: CAPPluginCall) {
+        call.unimplemented("enqueueUpload is not implemented on iOS")
+    }
+
+    @objc public func cancelUpload(_ call: CAPPluginCall) {
+        call.unimplemented("cancelUpload is not implemented on iOS")
+    }
+
+    @objc public func getThumbnailAtlas(_ call: CAPPluginCall) {
+        call.unimplemented("getThumbnailAtlas is not implemented on iOS")
+    }
+
+    @objc public func getTimelineBuckets(_ call: CAPPluginCall) {
+        call.unimplemented("getTimelineBuckets is not implemented on iOS")
+    }
+
     @objc public func getThumbnailUrl(_ call: CAPPluginCall) {
         guard service.isAccessGranted else {
             call.reject(PhotoLibraryError.permissionDenied.message)
@@ -126,6 +179,14 @@ public class PhotoLibraryPlugin: CAPPlugin, CAPBridgedPlugin {
         }
     }
 
+    @objc public func getThumbnailUrls(_ call: CAPPluginCall) {
+        call.unimplemented("getThumbnailUrls is not implemented on iOS")
+    }
+
+    @objc public func getVideoFrames(_ call: CAPPluginCall) {
+        call.unimplemented("getVideoFrames is not implemented on iOS")
+    }
+
     @objc public func pickMedia(_ call: CAPPluginCall) {
         guard #available(iOS 14, *) else {
             call.reject("pickMedia requires iOS 14 or newer")
@@ -197,6 +258,10 @@ extension PhotoLibraryPlugin: PHPickerViewControllerDelegate {
         }
     }
 
+    @objc public func getDiagnostics(_ call: CAPPluginCall) {
+        call.unimplemented("getDiagnostics is not implemented on iOS")
+    }
+
     @objc func getPluginVersion(_ call: CAPPluginCall) {
         call.resolve(["version": self.pluginVersion])
     }
@@ -1,9 +1,13 @@
+import type { PluginListenerHandle } from '@capacitor/core';
+
 export type PhotoLibraryAuthorizationState = 'authorized' | 'limited' | 'denied' | 'notDetermined';
 
 export interface PhotoLibraryPermissions {
   read?: PhotoLibraryAuthorizationState;
 }
 
+export type PhotoLibrarySortKey = 'dateAdded' | 'creationDate' | 'modificationDate' | 'size' | 'fileName';
+
 export interface GetLibraryOptions {
   /**
    * Number of assets to skip from the beginning of the query.
@@ -45,11 +49,75 @@ export interface GetLibraryOptions {
    * JPEG quality for generated thumbnails (0-1). Defaults to `0.5`.
    */
   thumbnailQuality?: number;
+  /**
+   * Byte budget per thumbnail. When set, each thumbnail is encoded at the highest JPEG quality whose output fits
+   * the budget and `thumbnailQuality` is ignored. Currently supported on Android.
+   */
+  thumbnailMaxBytes?: number;
   /**
    * When `true`, copies the full sized asset into the app cache and returns its URL.
    * Defaults to `false`.
    */
   includeFullResolutionData?: boolean;
+  /**
+   * When `true`, adds `blurHash` and `dominantColor` to each asset so grids can paint placeholders before the
+   * thumbnails load. Placeholders are cached until the asset changes. Defaults to `false`.
+   * Currently supported on Android.
+   */
+  includePlaceholder?: boolean;
+  /**
+   * When `true`, the page is persisted and later calls with the same options resolve immediately from that
+   * snapshot (`fromSnapshot: true`), even right after a cold start. The query is then re-run in the background and a
+   * `librarySnapshotChanged` event with the fresh page is emitted if it differs. With `thumbnailStorage: 'pack'`,
+   * snapshots taken before the pack was compacted are not reused. Defaults to `false`.
+   * Currently supported on Android.
+   */
+  useSnapshot?: boolean;
+  /**
+   * Asset fields to return besides `id`. Columns, date formatting, thumbnails and file copies behind fields that are
+   * not listed are skipped, so e.g. `fields: []` returns only ids and counts. Defaults to every field.
+   * Currently supported on Android.
+   */
+  fields?: PhotoLibraryAssetField[];
+  /**
+   * Only return assets that belong to one of these albums (ids from `getAlbums`).
+   * Currently supported on Android.
+   */
+  albumIds?: string[];
+  /**
+   * Only return assets created at or after this ISO-8601 date. Currently supported on Android.
+   */
+  fromDate?: string;
+  /**
+   * Only return assets created at or before this ISO-8601 date. Currently supported on Android.
+   */
+  toDate?: string;
+  /**
+   * Only return assets whose MIME type is one of these values (for example `image/heic`).
+   * Currently supported on Android.
+   */
+  mimeTypes?: string[];
+  /** Minimum size in bytes. Currently supported on Android. */
+  minSize?: number;
+  /** Maximum size in bytes. Currently supported on Android. */
+  maxSize?: number;
+  /** Minimum pixel width. Currently supported on Android. */
+  minWidth?: number;
+  /** Maximum pixel width. Currently supported on Android. */
+  maxWidth?: number;
+  /** Minimum pixel height. Currently supported on Android. */
+  minHeight?: number;
+  /** Maximum pixel height. Currently supported on Android. */
+  maxHeight?: number;
+  /**
+   * Field used to order the results. Defaults to `dateAdded`. `creationDate` orders by the reported `creationDate`, so
+   * assets without a capture time sort by their date added. Currently supported on Android.
+   */
+  sortBy?: PhotoLibrarySortKey;
+  /**
+   * Sort in ascending order instead of descending. Defaults to `false`. Currently supported on Android.
+   */
+  sortAscending?: boolean;
 }
 
 export interface PhotoLibraryFile {
@@ -62,11 +130,21 @@ export interface PhotoLibraryFile {
   mimeType: string;
   /** Size in bytes if known, otherwise `-1`. */
   size: number;
+  /**
+   * Only set on thumbnails when the `thumbnailStorage` plugin configuration is `'pack'`. All thumbnails then share
+   * one pack file at `path`, and this thumbnail is the `size` bytes starting at `offset`. Read it by fetching
+   * `webPath` with a `Range: bytes=<offset>-<offset + size - 1>` header. Currently supported on Android.
+   */
+  offset?: number;
 }
 
 export type PhotoAssetType = 'image' | 'video';
 
 export interface PhotoLibraryAsset {
+  /**
+   * Opaque asset identifier. On Android, assets stored on a secondary volume such as an SD card or
+   * USB drive include the volume name in their id.
+   */
   id: string;
   fileName: string;
   type: PhotoAssetType;
@@ -81,10 +159,17 @@ export interface PhotoLibraryAsset {
   /** Size in bytes reported by the OS for the underlying asset, if available. */
   size?: number;
   albumIds?: string[];
+  /** BlurHash of the asset (4x3 components, 3x4 for portrait), when `includePlaceholder` is set. */
+  blurHash?: string;
+  /** Most common color of the asset as `#rrggbb`, when `includePlaceholder` is set. */
+  dominantColor?: string;
   thumbnail?: PhotoLibraryFile;
   file?: PhotoLibraryFile;
 }
 
+/** Keys of {@link PhotoLibraryAsset} that can be selected with `GetLibraryOptions.fields`. */
+export type PhotoLibraryAssetField = Exclude<keyof PhotoLibraryAsset, 'id'>;
+
 export interface GetLibraryResult {
   assets: PhotoLibraryAsset[];
   /**
@@ -94,6 +179,10 @@ export interface GetLibraryResult {
   totalCount: number;
   /** Whether more assets are available when using pagination. */
   hasMore: boolean;
+  /** Identifies the persisted page when `useSnapshot` is set. */
+  snapshotId?: string;
+  /** Whether the page was served from a persisted snapshot, when `useSnapshot` is set. */
+  fromSnapshot?: boolean;
 }
 
 export interface PhotoLibraryAlbum {
@@ -118,10 +207,373 @@ export interface PickMediaOptions {
   thumbnailHeight?: number;
   /** JPEG quality for generated thumbnails (0-1). Defaults to `0.7`. */
   thumbnailQuality?: number;
+  /** Byte budget per thumbnail. See `GetLibraryOptions.thumbnailMaxBytes`. Currently supported on Android. */
+  thumbnailMaxBytes?: number;
+  /**
+   * Copy the selected files into the application cache before resolving. When `false`, only the
+   * metadata is read from the selected items, the returned assets have no `file`, and the copy happens
+   * the first time `getPhotoUrl` is called for the asset. Defaults to `true`. Currently supported on Android.
+   */
+  copyToCache?: boolean;
+}
+
+export interface PickMediaError {
+  /** Position of the failed item in the user's selection. */
+  index: number;
+  message: string;
 }
 
 export interface PickMediaResult {
+  /** Successfully processed items, in the order the user selected them. */
   assets: PhotoLibraryAsset[];
+  /** Items that could not be processed. Only present when at least one item failed. */
+  errors?: PickMediaError[];
+}
+
+export interface GetVideoFramesOptions {
+  /** Identifier of a video returned by `getLibrary` or `pickMedia`. */
+  id: string;
+  /** Position of the frame in seconds when `count` is `1`. Defaults to `0`. */
+  time?: number;
+  /**
+   * Number of frames to extract. Values greater than `1` return a preview strip of frames
+   * spread evenly across the video and ignore `time`; strip frames snap to the nearest keyframe. Defaults to `1`.
+   */
+  count?: number;
+  /** Maximum width of each frame. The aspect ratio is preserved. Defaults to `512`. */
+  width?: number;
+  /** Maximum height of each frame. The aspect ratio is preserved. Defaults to `384`. */
+  height?: number;
+  /** JPEG quality for the frames (0-1). Defaults to `0.5`. */
+  quality?: number;
+}
+
+export interface PhotoLibraryVideoFrame extends PhotoLibraryFile {
+  /** Position of the frame in seconds. */
+  time: number;
+}
+
+export interface GetVideoFramesResult {
+  frames: PhotoLibraryVideoFrame[];
+}
+
+export interface GetPhotoUrlOptions {
+  id: string;
+  /**
+   * Identifier used for `copyProgress` events and `cancelCopy`. Generated by the plugin when omitted.
+   * Currently supported on Android.
+   */
+  taskId?: string;
+  /**
+   * When set together with or instead of `maxHeight`, returns a downscaled rendition that fits inside the
+   * bounds instead of the original file. The aspect ratio and EXIF orientation are preserved. Videos always
+   * return the original. Currently supported on Android.
+   */
+  maxWidth?: number;
+  /** Maximum height of the rendition. See `maxWidth`. Currently supported on Android. */
+  maxHeight?: number;
+  /** Output format of the rendition. Defaults to `jpeg`. Currently supported on Android. */
+  format?: 'jpeg' | 'webp' | 'png';
+  /** Compression quality of the rendition (0-1). Defaults to `0.85`. Currently supported on Android. */
+  quality?: number;
+}
+
+export interface GetImageTileOptions {
+  /** Identifier of an image returned by `getLibrary` or `pickMedia`. */
+  id: string;
+  /** Left edge of the tile in full-resolution pixels, in display orientation. */
+  x: number;
+  /** Top edge of the tile in full-resolution pixels, in display orientation. */
+  y: number;
+  /** Width of the tile in full-resolution pixels. Clipped to the image bounds. */
+  width: number;
+  /** Height of the tile in full-resolution pixels. Clipped to the image bounds. */
+  height: number;
+  /**
+   * Zoom level of the tile. Level `n` returns the region downsampled by `2^n` (0-8). Defaults to `0`.
+   */
+  level?: number;
+  /** Output format of the tile. Defaults to `jpeg`. */
+  format?: 'jpeg' | 'webp' | 'png';
+  /** Compression quality of the tile (0-1). Defaults to `0.85`. */
+  quality?: number;
+}
+
+export interface ScanLocationsResult {
+  /** Images in the library. */
+  scanned: number;
+  /** Images whose EXIF header was read during this scan; unchanged images are skipped. */
+  updated: number;
+  /** Images with a known location after the scan. */
+  withLocation: number;
+}
+
+export interface GetLocationClustersOptions {
+  /** Bounding box in degrees. When `west` is greater than `east` the box crosses the antimeridian. */
+  north: number;
+  south: number;
+  east: number;
+  west: number;
+  /** Web Mercator zoom level (0-22) whose tiles group the assets. Defaults to `0`. */
+  zoom?: number;
+}
+
+export interface PhotoLibraryLocationCluster {
+  /** Tile coordinates of the cluster at `zoom`. */
+  x: number;
+  y: number;
+  zoom: number;
+  /** Number of images in the tile. */
+  count: number;
+  /** Centroid of the images in the tile. */
+  latitude: number;
+  longitude: number;
+}
+
+export interface FindDuplicatesOptions {
+  /**
+   * Maximum number of differing bits (0-8) between two 64-bit perceptual hashes for the images to count as
+   * near-duplicates. `0` only matches visually identical images. Defaults to `4`.
+   */
+  maxDistance?: number;
+}
+
+export interface FindDuplicatesResult {
+  /**
+   * Groups of image ids that look alike: every image is within `maxDistance` of the group's first id. Images without a
+   * match are omitted.
+   */
+  groups: string[][];
+  /** Images in the library. */
+  scanned: number;
+  /** Images hashed during this call; unchanged images reuse their stored hash. */
+  updated: number;
+}
+
+export interface GetAssetDigestOptions {
+  /** Asset ids from `getLibrary` or `pickMedia`. */
+  ids: string[];
+}
+
+export interface PhotoLibraryAssetDigest {
+  id: string;
+  /** Lowercase hex SHA-256 of the original file bytes. */
+  sha256: string;
+}
+
+export interface GetAssetDigestError {
+  id: string;
+  message: string;
+}
+
+export interface GetAssetDigestResult {
+  /** Digests in the order of the requested ids, omitting failures. */
+  digests: PhotoLibraryAssetDigest[];
+  /** Assets that could not be hashed, including reads that stalled for two minutes. */
+  errors?: GetAssetDigestError[];
+}
+
+export interface EnqueueUploadOptions {
+  /** Asset id from `getLibrary` or `pickMedia`. */
+  id: string;
+  /** http or https endpoint that receives the upload. */
+  url: string;
+  /** Defaults to `POST`. */
+  method?: 'POST' | 'PUT' | 'PATCH';
+  headers?: Record<string, string>;
+  /**
+   * `multipart` sends a `multipart/form-data` body with the file under `fieldName` plus `parameters`.
+   * `binary` sends the raw file bytes as the body. Defaults to `multipart`.
+   */
+  uploadType?: 'multipart' | 'binary';
+  /** Form field holding the file for multipart uploads. Defaults to `file`. */
+  fieldName?: string;
+  /** Extra form fields for multipart uploads. */
+  parameters?: Record<string, string>;
+  /**
+   * With `uploadType: 'binary'`, sends the file as consecutive requests of at most this many bytes (minimum 256 KiB)
+   * carrying `Content-Range` headers. A failed range is retried from the last byte the server acknowledged, either
+   * with a 2xx status or with `308` and a `Range: bytes=0-N` header. A `308` without `Range` restarts from byte 0.
+   */
+  chunkSize?: number;
+  /** Retries for network errors, 408, 429 and 5xx responses, with exponential backoff. Defaults to `3`. */
+  maxRetries?: number;
+  /** Identifier used for `uploadProgress` events and `cancelUpload`. Generated by the plugin when omitted. */
+  taskId?: string;
+}
+
+export interface UploadProgressEvent {
+  taskId: string;
+  assetId: string;
+  state: 'queued' | 'running' | 'retrying' | 'completed' | 'failed' | 'cancelled';
+  bytesSent: number;
+  /** Total size in bytes, or `-1` when unknown. */
+  totalBytes: number;
+  /** Average throughput since the upload started. */
+  bytesPerSecond: number;
+  /** Zero-based attempt number. */
+  attempt: number;
+  /** HTTP status of the last response, when one was received. */
+  statusCode?: number;
+  /** Response body (truncated to 64 KiB) once `completed`. */
+  responseBody?: string;
+  /** Failure reason for `retrying` and `failed`. */
+  error?: string;
+}
+
+export interface GetThumbnailAtlasOptions
+  extends Omit<
+    GetLibraryOptions,
+    | 'thumbnailWidth'
+    | 'thumbnailHeight'
+    | 'thumbnailQuality'
+    | 'thumbnailMaxBytes'
+    | 'includeFullResolutionData'
+    | 'includeAlbumData'
+    | 'fields'
+  > {
+  /** Number of assets in the page (1-256). Required. */
+  limit: number;
+  /** Size of each tile in pixels. Thumbnails are center-cropped to fill it. Defaults to 256x256. */
+  tileWidth?: number;
+  tileHeight?: number;
+  /** Tiles per row. Defaults to as many as fit in 4096 pixels. The atlas may not exceed 4096x4096. */
+  columns?: number;
+  /** Defaults to `jpeg`. */
+  format?: 'jpeg' | 'webp';
+  /** Compression quality between 0 and 1. */
+  quality?: number;
+}
+
+export interface PhotoLibraryAtlasTile {
+  id: string;
+  /** Rectangle of the asset inside the atlas image, in pixels. */
+  x: number;
+  y: number;
+  width: number;
+  height: number;
+}
+
+export interface GetThumbnailUrlsOptions {
+  id: string;
+  /** Between 1 and 8 sizes, in pixels. */
+  sizes: { width: number; height: number }[];
+  /** JPEG quality for the thumbnails (0-1). Defaults to `0.5`. */
+  quality?: number;
+  /** Byte budget per thumbnail, replacing `quality`. See `GetLibraryOptions.thumbnailMaxBytes`. */
+  maxBytes?: number;
+}
+
+export interface PhotoLibraryThumbnail extends PhotoLibraryFile {
+  width: number;
+  height: number;
+}
+
+export interface GetThumbnailUrlsResult {
+  /** Thumbnails in the order of `sizes`. Sizes that could not be produced are omitted. */
+  thumbnails: PhotoLibraryThumbnail[];
+}
+
+export interface PhotoLibraryCallStats {
+  /** Calls recorded since the last reset. Percentiles cover the most recent 2048 calls. */
+  count: number;
+  /** Time spent waiting for a background thread, in milliseconds. */
+  queueWaitP50: number;
+  queueWaitP99: number;
+  /** Time spent running once a thread picked the call up, in milliseconds. */
+  runP50: number;
+  runP99: number;
+  runMax: number;
+}
+
+export interface PhotoLibraryCacheReport {
+  checkedFiles: number;
+  /** Leftovers of interrupted writes. */
+  partialFiles: string[];
+  /** Cached images that are empty, undecodable or truncated. */
+  corruptFiles: string[];
+}
+
+export interface GetDiagnosticsResult {
+  /** Background work per plugin method. */
+  calls: Record<string, PhotoLibraryCallStats>;
+  /**
+   * Bitmap memory admitted for decoding, in bytes. `capacity` is a quarter of the app heap class and shrinks while
+   * the system reports memory pressure; `reserved` is held by decodes in flight.
+   */
+  decodeMemory: { capacity: number; reserved: number };
+  /** Present when `verifyCache` is set. */
+  cache?: PhotoLibraryCacheReport;
+}
+
+export interface GetTimelineBucketsOptions
+  extends Omit<
+    GetLibraryOptions,
+    | 'offset'
+    | 'limit'
+    | 'sortBy'
+    | 'thumbnailWidth'
+    | 'thumbnailHeight'
+    | 'thumbnailQuality'
+    | 'thumbnailMaxBytes'
+    | 'includeFullResolutionData'
+    | 'includeAlbumData'
+    | 'includePlaceholder'
+    | 'useSnapshot'
+    | 'fields'
+  > {
+  /** Size of each bucket, in the device time zone. Defaults to `'day'`. */
+  granularity?: 'day' | 'month';
+  /**
+   * Date the assets are grouped by. Offsets match `getLibrary` called with the same filters, `sortAscending` and
+   * `sortBy` set to this field. Defaults to `'creationDate'`.
+   */
+  dateField?: 'creationDate' | 'dateAdded';
+}
+
+export interface PhotoLibraryTimelineBucket {
+  /** `YYYY-MM-DD` for day buckets, `YYYY-MM` for month buckets. Omitted for the bucket of assets without a date. */
+  date?: string;
+  count: number;
+  /** Position of the bucket's first asset, usable as the `getLibrary` `offset`. */
+  offset: number;
+}
+
+export interface GetTimelineBucketsResult {
+  /** Buckets in the requested sort order. Empty days and months are omitted. */
+  buckets: PhotoLibraryTimelineBucket[];
+  totalCount: number;
+}
+
+export interface GetThumbnailAtlasResult {
+  /** Atlas image holding every tile of the page. */
+  file: PhotoLibraryFile;
+  columns: number;
+  rows: number;
+  tileWidth: number;
+  tileHeight: number;
+  /** Tiles in page order. Assets without a thumbnail are omitted. */
+  tiles: PhotoLibraryAtlasTile[];
+  totalCount: number;
+  hasMore: boolean;
+}
+
+export interface LibrarySnapshotChangedEvent extends Omit<GetLibraryResult, 'fromSnapshot'> {
+  /** Matches the `snapshotId` of the `getLibrary` result that was served from the snapshot. */
+  snapshotId: string;
+}
+
+export interface CopyProgressEvent {
+  /** Task id passed to `getPhotoUrl`, or generated by the plugin. */
+  taskId: string;
+  /** Asset being copied. */
+  assetId: string;
+  state: 'running' | 'completed' | 'cancelled' | 'failed';
+  bytesCopied: number;
+  /** Total size in bytes, or `-1` when unknown. */
+  totalBytes: number;
+  /** Average throughput since the copy started. */
+  bytesPerSecond: number;
 }
 
 export interface PhotoLibraryPlugin {
@@ -138,20 +590,115 @@ export interface PhotoLibraryPlugin {
    * If you already called `getLibrary` with `includeFullResolutionData`, you normally
    * do not need this method.
    */
-  getPhotoUrl(options: { id: string }): Promise<PhotoLibraryFile>;
+  getPhotoUrl(options: GetPhotoUrlOptions): Promise<PhotoLibraryFile>;
+  /**
+   * Decodes only the requested region of a large image, for deep zoom viewers. Tiles are cached on disk.
+   * Currently supported on Android.
+   */
+  getImageTile(options: GetImageTileOptions): Promise<PhotoLibraryFile>;
+  /**
+   * Cancels a running copy started by `getPhotoUrl`, `getLibrary` or `pickMedia`. The partial file is removed
+   * and the pending call rejects. Currently supported on Android.
+   */
+  cancelCopy(options: { taskId: string }): Promise<{ cancelled: boolean }>;
+  /**
+   * Reads the GPS location of every image changed since the previous scan and stores it in a persistent index.
+   * Afterwards `getLibrary` reports `latitude`/`longitude` for images. Currently supported on Android.
+   */
+  scanLocations(): Promise<ScanLocationsResult>;
+  /**
+   * Groups the scanned image locations inside a bounding box into map tiles. Run `scanLocations` first.
+   * Currently supported on Android.
+   */
+  getLocationClusters(options: GetLocationClustersOptions): Promise<{ clusters: PhotoLibraryLocationCluster[] }>;
+  /**
+   * Finds duplicate and near-duplicate images using perceptual hashes kept in a persistent index, so repeated
+   * calls only hash new or modified images. Currently supported on Android.
+   */
+  findDuplicates(options?: FindDuplicatesOptions): Promise<FindDuplicatesResult>;
+  /**
+   * Computes SHA-256 digests natively without copying the files. Digests are cached by id, size and modification
+   * date, so unchanged assets are answered without reading them again. Currently supported on Android.
+   */
+  getAssetDigest(options: GetAssetDigestOptions): Promise<GetAssetDigestResult>;
+  /**
+   * Queues a native upload that streams the original asset straight from the device storage to `url`, without
+   * passing the bytes through the WebView. Resolves once queued; follow the outcome with `uploadProgress` events.
+   * Uploads run while the app process is alive, at most `uploadConcurrency` at a time (plugin configuration,
+   * defaults to 2). Currently supported on Android.
+   */
+  enqueueUpload(options: EnqueueUploadOptions): Promise<{ taskId: string }>;
+  /**
+   * Renders a page of library thumbnails into a single sprite sheet with a map of tile rectangles, so a grid page
+   * needs one image request instead of one per asset. Atlases are cached until the library changes.
+   * Currently supported on Android.
+   */
+  getThumbnailAtlas(options: GetThumbnailAtlasOptions): Promise<GetThumbnailAtlasResult>;
+  /**
+   * Counts the assets matching the filters per day or month, for timeline scrubbers. Each bucket carries the
+   * `getLibrary` offset of its first asset. Results are cached until the library changes.
+   * Currently supported on Android.
+   */
+  getTimelineBuckets(options?: GetTimelineBucketsOptions): Promise<GetTimelineBucketsResult>;
+  /** Cancels a queued or running upload. Currently supported on Android. */
+  cancelUpload(options: { taskId: string }): Promise<{ cancelled: boolean }>;
   /** Retrieves a displayable URL for a resized thumbnail of the asset. */
   getThumbnailUrl(options: {
     id: string;
     width?: number;
     height?: number;
     quality?: number;
+    /** Byte budget, replacing `quality`. See `GetLibraryOptions.thumbnailMaxBytes`. Currently supported on Android. */
+    maxBytes?: number;
   }): Promise<PhotoLibraryFile>;
+  /**
+   * Retrieves thumbnails of the asset at several sizes, produced from a single decode. Sizes already cached at a
+   * larger size are downscaled from that thumbnail instead of the original asset. Currently supported on Android.
+   */
+  getThumbnailUrls(options: GetThumbnailUrlsOptions): Promise<GetThumbnailUrlsResult>;
+  /**
+   * Extracts a poster frame at a given time, or a strip of evenly spaced preview frames, from a video.
+   * Currently supported on Android.
+   */
+  getVideoFrames(options: GetVideoFramesOptions): Promise<GetVideoFramesResult>;
   /**
    * Opens the native system picker so the user can select media without granting full photo library access.
    * The selected files are copied into the application cache and returned with portable URLs.
+   * On Android, picking the same file again returns the same `id` and reuses the existing copy, and ids keep
+   * working after an app restart until they expire after 30 days without use.
    */
   pickMedia(options?: PickMediaOptions): Promise<PickMediaResult>;
 
+  /**
+   * Listens for progress of file copies into the application cache. Currently supported on Android.
+   */
+  addListener(
+    eventName: 'copyProgress',
+    listenerFunc: (event: CopyProgressEvent) => void,
+  ): Promise<PluginListenerHandle>;
+  /**
+   * Emitted when a `getLibrary` page served from a snapshot (`useSnapshot`) turned out to be stale.
+   * Currently supported on Android.
+   */
+  addListener(
+    eventName: 'librarySnapshotChanged',
+    listenerFunc: (event: LibrarySnapshotChangedEvent) => void,
+  ): Promise<PluginListenerHandle>;
+  /**
+   * Listens for progress of uploads started with `enqueueUpload`. Currently supported on Android.
+   */
+  addListener(
+    eventName: 'uploadProgress',
+    listenerFunc: (event: UploadProgressEvent) => void,
+  ): Promise<PluginListenerHandle>;
+  /** Removes all listeners for this plugin. */
+  removeAllListeners(): Promise<void>;
+
+  /**
+   * Latency of the plugin's background work and, optionally, an integrity check of the cached files. Meant for soak
+   * and regression runs such as the example app's load test. Currently supported on Android.
+   */
+  getDiagnostics(options?: { verifyCache?: boolean; reset?: boolean }): Promise<GetDiagnosticsResult>;
   /**
    * Get the native Capacitor plugin version
    *
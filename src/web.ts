@@ -1,14 +1,33 @@
 import { WebPlugin } from '@capacitor/core';
 
 import type {
+  EnqueueUploadOptions,
+  FindDuplicatesOptions,
+  FindDuplicatesResult,
+  GetAssetDigestOptions,
+  GetAssetDigestResult,
+  GetDiagnosticsResult,
   GetLibraryOptions,
+  GetImageTileOptions,
   GetLibraryResult,
+  GetLocationClustersOptions,
+  GetPhotoUrlOptions,
+  GetThumbnailAtlasOptions,
+  GetThumbnailAtlasResult,
+  GetThumbnailUrlsOptions,
+  GetThumbnailUrlsResult,
+  GetTimelineBucketsOptions,
+  GetTimelineBucketsResult,
+  GetVideoFramesOptions,
+  GetVideoFramesResult,
   PhotoLibraryAlbum,
   PhotoLibraryAuthorizationState,
   PhotoLibraryFile,
+  PhotoLibraryLocationCluster,
   PickMediaOptions,
   PickMediaResult,
   PhotoLibraryPlugin,
+  ScanLocationsResult,
 } from './definitions';
 
 export class PhotoLibraryWeb extends WebPlugin implements PhotoLibraryPlugin {
@@ -28,10 +47,52 @@ export class PhotoLibraryWeb extends WebPlugin implements PhotoLibraryPlugin {
     throw this.unimplemented('getLibrary');
   }
 
-  async getPhotoUrl(_options: { id: string }): Promise<PhotoLibraryFile> {
+  async getPhotoUrl(_options: GetPhotoUrlOptions): Promise<PhotoLibraryFile> {
     throw this.unimplemented('getPhotoUrl');
   }
 
+  async getImageTile(_options: GetImageTileOptions): Promise<PhotoLibraryFile> {
+    throw this.unimplemented('getImageTile');
+  }
+
+  async cancelCopy(_options: { taskId: string }): Promise<{ cancelled: boolean }> {
+    throw this.unimplemented('cancelCopy');
+  }
+
+  async scanLocations(): Promise<ScanLocationsResult> {
+    throw this.unimplemented('scanLocations');
+  }
+
+  async getLocationClusters(
+    _options: GetLocationClustersOptions,
+  ): Promise<{ clusters: PhotoLibraryLocationCluster[] }> {
+    throw this.unimplemented('getLocationClusters');
+  }
+
+  async findDuplicates(_options?: FindDuplicatesOptions): Promise<FindDuplicatesResult> {
+    throw this.unimplemented('findDuplicates');
+  }
+
+  async getAssetDigest(_options: GetAssetDigestOptions): Promise<GetAssetDigestResult> {
+    throw this.unimplemented('getAssetDigest');
+  }
+
+  async enqueueUpload(_options: EnqueueUploadOptions): Promise<{ taskId: string }> {
+    throw this.unimplemented('enqueueUpload');
+  }
+
+  async cancelUpload(_options: { taskId: string }): Promise<{ cancelled: boolean }> {
+    throw this.unimplemented('cancelUpload');
+  }
+
+  async getThumbnailAtlas(_options: GetThumbnailAtlasOptions): Promise<GetThumbnailAtlasResult> {
+    throw this.unimplemented('getThumbnailAtlas');
+  }
+
+  async getTimelineBuckets(_options?: GetTimelineBucketsOptions): Promise<GetTimelineBucketsResult> {
+    throw this.unimplemented('getTimelineBuckets');
+  }
+
   async getThumbnailUrl(_options: {
     id: string;
     width?: number | undefined;
@@ -41,10 +102,22 @@ export class PhotoLibraryWeb extends WebPlugin implements PhotoLibraryPlugin {
     throw this.unimplemented('getThumbnailUrl');
   }
 
+  async getThumbnailUrls(_options: GetThumbnailUrlsOptions): Promise<GetThumbnailUrlsResult> {
+    throw this.unimplemented('getThumbnailUrls');
+  }
+
+  async getVideoFrames(_options: GetVideoFramesOptions): Promise<GetVideoFramesResult> {
+    throw this.unimplemented('getVideoFrames');
+  }
+
   async pickMedia(_options?: PickMediaOptions): Promise<PickMediaResult> {
     throw this.unimplemented('pickMedia');
   }
 
+  async getDiagnostics(_options?: { verifyCache?: boolean; reset?: boolean }): Promise<GetDiagnosticsResult> {
+    throw this.unimplemented('getDiagnostics');
+  }
+
   async getPluginVersion(): Promise<{ version: string }> {
     return { version: 'web' };
   }